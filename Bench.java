@@ -0,0 +1,180 @@
+
+//
+// Author: Azali Saudi
+// Date Created : 18 Oct 2026
+// Last Modified: 18 Oct 2026
+// Task: Microbenchmarks of the Solver kernels on synthetic regions
+//
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+public class Bench {
+	//Every kernel of Solver, one call is one sweep (or one pass over the unknowns)
+	static final String[] KERNELS = {
+		"JACOBI", "GS", "SOR", "AOR", "TOR", "RGS", "FILLRGS", "RBGS", "RBSOR",
+		"EGSOR", "MEGSOR", "SOR+ERROR", "GETERROR", "GETRERROR", "UPDATEIMAGE", "SETUP"
+	};
+	static final String[] SHAPES = { "RECT", "DISK", "BAND", "HOLES" };
+
+	//The results of the kernels go here so that none of them is dead code
+	static double sink;
+
+	//A synthetic composite: the canvas, its mask and the selection
+	static class Problem {
+		int[][] mask;
+		BufferedImage image, selected;
+		int xMin, yMin, W, H;
+
+		Solver solver() {
+			return new Solver(mask, image, selected, xMin, yMin, W, H, false);
+		}
+	}
+
+	//
+	// A region of shape in a size x size box, centred on a canvas whose
+	// side is canvas times the size plus a ring of one pixel. Every pixel
+	// next to the region is a border pixel (-1), as after Blender.updateMask.
+	//
+	static Problem problem(String shape, int size, int canvas) {
+		Problem p = new Problem();
+		p.W = p.H = canvas * size + 2;
+		p.xMin = p.yMin = (p.W - size) / 2;
+		p.mask = new int[p.W][p.H];
+		for (int[] column : p.mask) Arrays.fill(column, -2);
+		double r = size / 2.0;
+		int n = 0;
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				boolean in = true;
+				if (shape.equals("DISK")) in = (x - r + 0.5) * (x - r + 0.5) + (y - r + 0.5) * (y - r + 0.5) < r * r;
+				if (shape.equals("BAND")) in = Math.abs(x - y) < 4;
+				//A hole of 3 x 3 pixels every 8 pixels
+				if (shape.equals("HOLES")) in = x % 8 < 5 || y % 8 < 5;
+				if (in) p.mask[p.xMin + x][p.yMin + y] = n++;
+			}
+		}
+		for (int x = 1; x < p.W - 1; x++) {
+			for (int y = 1; y < p.H - 1; y++) {
+				if (p.mask[x][y] != -2) continue;
+				for (int dx = -1; dx <= 1; dx++)
+					for (int dy = -1; dy <= 1; dy++)
+						if (p.mask[x+dx][y+dy] >= 0) p.mask[x][y] = -1;
+			}
+		}
+		Random rnd = new Random(size);
+		p.image = new BufferedImage(p.W, p.H, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = Solver.pixels(p.image);
+		for (int k = 0; k < pixels.length; k++) pixels[k] = rnd.nextInt(0x1000000);
+		p.selected = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		pixels = Solver.pixels(p.selected);
+		for (int k = 0; k < pixels.length; k++) pixels[k] = 0xFF000000 | rnd.nextInt(0x1000000);
+		return p;
+	}
+
+	//One call of the kernel, solver is null for SETUP
+	static void run(String kernel, Solver solver, Problem p) {
+		switch (kernel) {
+			case "JACOBI": solver.doJacobi(); break;
+			case "GS": solver.doGS(); break;
+			case "SOR": solver.doSOR(1.9); break;
+			case "AOR": solver.doAOR(1.9, 1.7); break;
+			case "TOR": solver.doTOR(1.9, 1.7, 1.74); break;
+			case "RGS": solver.doRGS(); break;
+			case "FILLRGS": solver.fillRGS(); break;
+			case "RBGS": solver.doRBGS(); break;
+			case "RBSOR": solver.doRBSOR(1.9); break;
+			case "EGSOR": solver.doEGSOR(1.9); break;
+			case "MEGSOR": solver.doMEGSOR(1.9); break;
+			case "SOR+ERROR":
+				//The fused sweep of Compositor when the cadence is due
+				solver.measure = true;
+				solver.doSOR(1.9);
+				solver.measure = false;
+				sink += solver.lastError();
+				break;
+			case "GETERROR": sink += solver.getError(); break;
+			case "GETRERROR": sink += solver.getRError(); break;
+			case "UPDATEIMAGE": solver.updateImage(p.selected); break;
+			case "SETUP": sink += p.solver().N; break;
+			default: throw new IllegalArgumentException("Unknown kernel " + kernel);
+		}
+	}
+
+	//Bytes allocated by this thread so far, -1 if the JVM can't tell
+	static long allocated() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	//
+	// Runs the kernel in rounds of about ms milliseconds, the first rounds
+	// warm it up. Returns the median ns per unknown per call over the
+	// measured rounds and the bytes allocated per call.
+	//
+	static double[] measure(String kernel, Solver solver, Problem p, int N, int warmup, int rounds, long ms) {
+		//Calls per round, from the time of a first call
+		long t = System.nanoTime();
+		run(kernel, solver, p);
+		t = System.nanoTime() - t;
+		int calls = (int)Math.max(1, Math.min(1000000, ms * 1000000 / Math.max(1, t)));
+		double[] times = new double[rounds];
+		long bytes = 0;
+		for (int round = -warmup; round < rounds; round++) {
+			long a = allocated();
+			t = System.nanoTime();
+			for (int k = 0; k < calls; k++) run(kernel, solver, p);
+			t = System.nanoTime() - t;
+			if (round < 0) continue;
+			times[round] = (double)t / calls / Math.max(1, N);
+			bytes += allocated() - a;
+		}
+		Arrays.sort(times);
+		return new double[] { times[rounds / 2], (double)bytes / ((long)rounds * calls) };
+	}
+
+	static String[] list(String arg, String[] all) {
+		return arg.equals("ALL") ? all : arg.toUpperCase().split(",");
+	}
+
+    //
+    // Usage:
+    //   java Bench [sizes] [shapes] [kernels] [canvases] [threads] [ms]
+    // e.g. java -Xmx4g Bench 64,256,1024,4096 DISK,HOLES SOR,RBSOR 1,2 1 200
+    // Lists are comma separated, ALL takes every shape or kernel. A region
+    // of size s sits on a canvas of side canvas*s+2. Prints the median ns
+    // per unknown per sweep over 5 rounds of about ms milliseconds after 3
+    // warm-up rounds, and the bytes allocated per sweep on this thread.
+    //
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		String[] sizes = (args.length > 0 ? args[0] : "64,256,1024").split(",");
+		String[] shapes = list(args.length > 1 ? args[1] : "ALL", SHAPES);
+		String[] kernels = list(args.length > 2 ? args[2] : "ALL", KERNELS);
+		String[] canvases = (args.length > 3 ? args[3] : "1,2").split(",");
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+		long ms = args.length > 5 ? Long.parseLong(args[5]) : 200;
+
+		System.out.println(String.format("%-6s %-6s %-6s %-12s %10s %12s %12s",
+		                                 "size", "shape", "canvas", "kernel", "unknowns", "ns/unknown", "bytes/sweep"));
+		for (String size : sizes) {
+			for (String shape : shapes) {
+				for (String canvas : canvases) {
+					Problem p = problem(shape, Integer.parseInt(size.trim()), Integer.parseInt(canvas.trim()));
+					Solver solver = p.solver();
+					solver.setThreads(threads);
+					for (String kernel : kernels) {
+						double[] result = measure(kernel, solver, p, solver.N, 3, 5, ms);
+						System.out.println(String.format(Locale.ROOT, "%-6s %-6s %-6s %-12s %10d %12.3f %12.0f",
+						                                 size, shape, canvas, kernel, solver.N, result[0], result[1]));
+					}
+					solver.setThreads(1);
+				}
+			}
+		}
+		if (sink == 42.0) System.out.println();
+	}
+}
@@ -15,12 +15,15 @@ import java.io.*;
 import javax.imageio.*;
 import java.awt.image.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Blender extends JFrame implements ActionListener,
 						MouseListener, MouseMotionListener {
 	//Display parameters
 	public static final int Width = 1000;
 	public static final int Height = 500;
+	//Frames per second of the preview while blending
+	public static final int FPS = 30;
 
 	//Program state
 	public static final int NOTHING = 0;
@@ -40,6 +43,8 @@ public class Blender extends JFrame implements ActionListener,
 	//GUI Widgets
 	public JLabel label;
 	public JTextField tfMethod;
+	public JTextField tfThreads;
+	public JTextField tfCheck;
 	public JTextField tfW1;
 	public JTextField tfW2;
 	public JTextField tfR1;
@@ -57,14 +62,16 @@ public class Blender extends JFrame implements ActionListener,
 
 	//Variables for selected image
 	public int[][] mask;//A 2D array that represents a selected region
+	int maskX0 = 0, maskY0 = 0, maskX1 = Width-1, maskY1 = Height-1;
 	//It encodes the enclosed region and the border of that region
-	public ArrayList<Coord> selectionBorder;
-	public ArrayList<Coord> selectionArea;
+	public Coords selectionBorder;
+	public Coords selectionArea;
 	public BufferedImage selectedImage;
 	int xMin, xMax, yMin, yMax;//Bounding box of selected area
 
 	//GUI State Variables
-	public int state;
+	//Read by the solver thread to stop the blend
+	public volatile int state;
 	public boolean dragValid;
 	public int lastX, lastY;
 	public int dx, dy;
@@ -73,34 +80,50 @@ public class Blender extends JFrame implements ActionListener,
 
 	//The solver
 	public Solver solver;
+	//The last blend stays a selection that can be moved and blended again
+	//until it's committed, selectedSource holds its pixels before blending
+	public boolean blended;
+	public BufferedImage selectedSource;
 	public Thread iteratorThread;
+	//Convergence history and timings of the last blend
+	public Telemetry telemetry = new Telemetry();
 
 	//-2 for uninvolved pixels
 	//-1 for border pixels
 	//Index number for area pixels
 	//This function also moves everything over
+	//Only the box maskX0..maskX1, maskY0..maskY1 of mask may hold anything but -2
 	void updateMask() {
-		for (int x = 0; x < Width; x++) {
-			for (int y = 0; y < Height; y++)
-				mask[x][y] = -2;
-		}
+		for (int x = maskX0; x <= maskX1; x++)
+			Arrays.fill(mask[x], maskY0, maskY1 + 1, -2);
+		maskX0 = Width;
+		maskY0 = Height;
+		maskX1 = -1;
+		maskY1 = -1;
+		//Moving the lists only moves their offset
+		selectionBorder.translate(dx, dy);
+		selectionArea.translate(dx, dy);
 		for (int i = 0; i < selectionBorder.size(); i++) {
-			int x = selectionBorder.get(i).x + dx;
-			int y = selectionBorder.get(i).y + dy;
-			selectionBorder.get(i).x = x;
-			selectionBorder.get(i).y = y;
+			int x = selectionBorder.x(i);
+			int y = selectionBorder.y(i);
 			if (x < 0 || x >= Width || y < 0 || y >= Height)
 				continue;
 			mask[x][y] = -1;
+			maskX0 = Math.min(maskX0, x);
+			maskX1 = Math.max(maskX1, x);
+			maskY0 = Math.min(maskY0, y);
+			maskY1 = Math.max(maskY1, y);
 		}
 		for (int i = 0; i < selectionArea.size(); i++) {
-			int x = selectionArea.get(i).x + dx;
-			int y = selectionArea.get(i).y + dy;
-			selectionArea.get(i).x = x;
-			selectionArea.get(i).y = y;
+			int x = selectionArea.x(i);
+			int y = selectionArea.y(i);
 			if (x < 0 || x >= Width || y < 0 || y >= Height)
 				continue;
 			mask[x][y] = i;
+			maskX0 = Math.min(maskX0, x);
+			maskX1 = Math.max(maskX1, x);
+			maskY0 = Math.min(maskY0, y);
+			maskY1 = Math.max(maskY1, y);
 		}
 		xMin += dx; xMax += dx;
 		yMin += dy; yMax += dy;
@@ -117,8 +140,8 @@ public class Blender extends JFrame implements ActionListener,
 			for (int y = 0; y < Height; y++)
 				mask[x][y] = 0;
 		}
-		selectionArea = new ArrayList<Coord>();
-		selectionBorder = new ArrayList<Coord>();
+		selectionArea = new Coords();
+		selectionBorder = new Coords();
 
 		Container content = getContentPane();
 		content.setLayout(null);
@@ -158,6 +181,16 @@ public class Blender extends JFrame implements ActionListener,
 		tfMethod.setBounds(200,Height+60, 80,25);
 		content.add(tfMethod);
 
+		//Number of threads used by the red-black methods (RBGS, RBSOR, ...)
+		tfThreads = new JTextField(Integer.toString(Runtime.getRuntime().availableProcessors()));
+		tfThreads.setBounds(200,Height+85, 80,25);
+		content.add(tfThreads);
+
+		//Sweeps between two error checks, A for an adaptive interval
+		tfCheck = new JTextField("1");
+		tfCheck.setBounds(200,Height+110, 80,25);
+		content.add(tfCheck);
+
 		tfW1 = new JTextField("1.60");
 		tfW1.setBounds(10,Height+60, 50,25);
 		content.add(tfW1);
@@ -200,10 +233,10 @@ public class Blender extends JFrame implements ActionListener,
 			g.drawImage(image, 0, 0, this);
 			g.setColor(Color.RED);
 
-			if (state == SELECTING || state == DRAGGING) {
+			if (state == SELECTING || (state == DRAGGING && !blended)) {
 				for (int i = 0; i < selectionBorder.size(); i++) {
-					int x = selectionBorder.get(i).x + dx;
-					int y = selectionBorder.get(i).y + dy;
+					int x = selectionBorder.x(i) + dx;
+					int y = selectionBorder.y(i) + dy;
 					g.drawLine(x, y, x, y);
 				}
 			}
@@ -216,6 +249,8 @@ public class Blender extends JFrame implements ActionListener,
 		String str = evt.getActionCommand();
 		if (state == BLENDING)
 			return;
+		if (!str.equals(BLEND_SELECTION) && !str.equals(SAVE_IMAGE) && !str.equals(SAVE_REGION))
+			commitBlending();
 		if (str.equals(SELECT_REGION)) {
 			//Clear previous selection
 			selectionBorder.clear();
@@ -223,11 +258,33 @@ public class Blender extends JFrame implements ActionListener,
 			state = SELECTING;
 		}
 		else if (str.equals(BLEND_SELECTION)) {
+			try {
+				//The fields are checked here, a bad value on the worker thread
+				//would leave the state BLENDING for good
+				Compositor.validate(tfMethod.getText());
+				if (!tfW1.getText().trim().equalsIgnoreCase("AUTO")) Compositor.factor(tfW1.getText(), "w");
+				Compositor.factor(tfR1.getText(), "r");
+				Compositor.factor(tfR2.getText(), "s");
+				if (!tfThreads.getText().trim().matches("[1-9][0-9]*"))
+					throw new IllegalArgumentException("Expected at least 1 thread, not " + tfThreads.getText());
+				new Cadence(tfCheck.getText());
+			}
+			catch (IllegalArgumentException e) {
+				taNote.append(e.getMessage() + "\n");
+				return;
+			}
 			state = BLENDING;
 
 			updateMask();
-			solver = new Solver(mask, selectionArea, image, selectedImage,
-									  xMin, yMin, Width, Height, false);
+			telemetry.beginSetup();
+			//A blend that was moved starts again from its last solution
+			if (!blended || !solver.relocate(mask, image, xMin - solver.xMin, yMin - solver.yMin)) {
+				if (blended) selectedImage = copy(selectedSource);
+				else selectedSource = copy(selectedImage);
+				solver = new Solver(mask, image, selectedImage,
+										  xMin, yMin, Width, Height, false);
+			}
+			telemetry.endSetup(solver);
 			Iterator iterator = new Iterator();
 			iteratorThread = new Thread(iterator);
 			iteratorThread.start();
@@ -319,7 +376,7 @@ public class Blender extends JFrame implements ActionListener,
 		int x = evt.getX();
 		int y = evt.getY();
 		if (state == SELECTING) {
-			selectionBorder.add(new Coord(x, y));
+			selectionBorder.add(x, y);
 		}
 		else if (state == DRAGGING) {
 			//Make sure the user is dragging within the bounds of the selection
@@ -338,23 +395,49 @@ public class Blender extends JFrame implements ActionListener,
 		canvas.repaint();
 	}
 
-	void fillOutside(int paramx, int paramy) {
-		ArrayList<Coord> stack = new ArrayList<Coord>();
-		stack.add(new Coord(paramx, paramy));
-		while (stack.size() > 0) {
-			Coord c = stack.remove(stack.size()-1);
-			int x = c.x, y = c.y;
-			if (x < 0 || x >= Width || y < 0 || y >= Height)
-				continue;
-			if (mask[x][y] == -1) //Stop at border pixels
-				continue;
-			if (mask[x][y] == 0) //Don't repeat nodes that have already been visited
+	//
+	// Marks with 0 the pixels of the box x0..x1, y0..y1 of mask (and of the
+	// ring around it) that a 4-connected flood from the ring reaches without
+	// crossing a border pixel (-1). Everything off the box is outside anyway.
+	// It fills a run of a column at a time, from a stack of x*Height + y.
+	//
+	static void fillOutside(int[][] mask, int x0, int y0, int x1, int y1) {
+		int W = mask.length, H = mask[0].length;
+		int X0 = Math.max(0, x0-1), X1 = Math.min(W-1, x1+1);
+		int Y0 = Math.max(0, y0-1), Y1 = Math.min(H-1, y1+1);
+		int[] stack = new int[256];
+		int top = 0;
+		for (int x = X0; x <= X1; x++) {
+			for (int y = Y0; y <= Y1; y++) {
+				if (x >= x0 && x <= x1 && y == y0)
+					y = y1 + 1;//Skip the box, only the ring seeds
+				if (y > Y1 || mask[x][y] != -2)
+					continue;
+				if (top == stack.length) stack = Arrays.copyOf(stack, 2*top);
+				stack[top++] = x*H + y;
+			}
+		}
+		while (top > 0) {
+			int x = stack[--top] / H, y = stack[top] % H;
+			int[] column = mask[x];
+			if (column[y] != -2)
 				continue;
-			mask[x][y] = 0;
-			stack.add(new Coord(x-1, y));
-			stack.add(new Coord(x+1, y));
-			stack.add(new Coord(x, y-1));
-			stack.add(new Coord(x, y+1));
+			int a = y, b = y;
+			while (a > Y0 && column[a-1] == -2) a--;
+			while (b < Y1 && column[b+1] == -2) b++;
+			Arrays.fill(column, a, b + 1, 0);
+			//One seed for every run of the columns beside a..b
+			for (int nx = x-1; nx <= x+1; nx += 2) {
+				if (nx < X0 || nx > X1)
+					continue;
+				int[] next = mask[nx];
+				for (int k = a; k <= b; k++) {
+					if (next[k] != -2 || (k > a && next[k-1] == -2))
+						continue;
+					if (top == stack.length) stack = Arrays.copyOf(stack, 2*top);
+					stack[top++] = nx*H + k;
+				}
+			}
 		}
 	}
 
@@ -367,8 +450,8 @@ public class Blender extends JFrame implements ActionListener,
 		yMin = Height;
 		yMax = 0;
 		for (int i = 0; i < selectionBorder.size(); i++) {
-			int x = selectionBorder.get(i).x;
-			int y = selectionBorder.get(i).y;
+			int x = selectionBorder.x(i);
+			int y = selectionBorder.y(i);
 			if (x < xMin)
 				xMin = x;
 			if (x > xMax)
@@ -381,31 +464,24 @@ public class Blender extends JFrame implements ActionListener,
 		int selWidth = xMax - xMin;
 		int selHeight = yMax - yMin;
 		selectedImage = new BufferedImage(selWidth, selHeight, BufferedImage.TYPE_INT_ARGB);
-		//Find a pixel outside of the bounding box, which is guaranteed
-		//to be outside of the selection
-		boolean found = false;
-		for (int x = 0; x < Width && !found; x++) {
-			for (int y = 0; y < Height && !found; y++) {
-				if ((x < xMin || x > xMax) && (y < yMin || y > yMax)) {
-					found = true;
-					fillOutside(x, y);
-				}
-			}
-		}
+		fillOutside(mask, xMin, yMin, xMax, yMax);
 		//Pixels in selection area have mask value of -2, outside have mask value of 0
-		for (int x = 0; x < Width; x++) {
-			for (int y = 0; y < Height; y++) {
-				if (x - xMin >= 0 && y - yMin >= 0 && x - xMin < selWidth && y - yMin < selHeight)
-					selectedImage.setRGB(x-xMin, y-yMin, image.getRGB(x,y)&0x00FFFFFF);
+		int[] canvasPixels = Solver.pixels(image);
+		int[] selectedPixels = Solver.pixels(selectedImage);
+		for (int x = Math.max(0, xMin-1); x <= Math.min(Width-1, xMax+1); x++) {
+			for (int y = Math.max(0, yMin-1); y <= Math.min(Height-1, yMax+1); y++) {
+				int k = (y-yMin)*selWidth + x-xMin;
+				boolean selected = x - xMin >= 0 && y - yMin >= 0 && x - xMin < selWidth && y - yMin < selHeight;
+				if (selected)
+					selectedPixels[k] = canvasPixels[y*Width + x] & 0x00FFFFFF;
 				if (mask[x][y] == 0) {
 					mask[x][y] = -2;
 				}
 				else if (mask[x][y] != -1) {
 					mask[x][y] = selectionArea.size();//Make mask index of this coord
-					selectionArea.add(new Coord(x, y));
-					int color = (255 << 24) | image.getRGB(x, y);
-					if (x - xMin >= 0 && y - yMin >= 0) ;
-						selectedImage.setRGB(x-xMin, y-yMin, color);
+					selectionArea.add(x, y);
+					if (selected)
+						selectedPixels[k] = 0xFF000000 | canvasPixels[y*Width + x];
 				}
 			}
 		}
@@ -420,16 +496,16 @@ public class Blender extends JFrame implements ActionListener,
 
 		if (state == SELECTING) {
 			for (int n = 0; n < N; n++) {
-				int startx = selectionBorder.get(n).x;
-				int starty = selectionBorder.get(n).y;
-				int totalDX = selectionBorder.get((n+1)%N).x - startx;
-				int totalDY = selectionBorder.get((n+1)%N).y - starty;
+				int startx = selectionBorder.x(n);
+				int starty = selectionBorder.y(n);
+				int totalDX = selectionBorder.x((n+1)%N) - startx;
+				int totalDY = selectionBorder.y((n+1)%N) - starty;
 				int numAdded = Math.abs(totalDX) + Math.abs(totalDY);
 				for (int t = 0; t < numAdded; t++) {
 					double frac = (double)t / (double)numAdded;
 					int x = (int)Math.round(frac*totalDX) + startx;
 					int y = (int)Math.round(frac*totalDY) + starty;
-					selectionBorder.add(new Coord(x, y));
+					selectionBorder.add(x, y);
 				}
 			}
 
@@ -447,127 +523,124 @@ public class Blender extends JFrame implements ActionListener,
 		canvas.repaint();
 	}
 
+	//The blend can still be dragged and blended again, see commitBlending
 	public void finalizeBlending() {
+		blended = true;
+		dragValid = false;
+		state = DRAGGING;
+	}
+
+	//Pastes the last blend into the canvas for good
+	public void commitBlending() {
+		if (!blended)
+			return;
 		Graphics g = image.getGraphics();
 		g.drawImage(selectedImage, xMin, yMin, null);
 		selectedImage = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+		selectedSource = null;
 		selectionBorder.clear();
 		selectionArea.clear();
+		blended = false;
 		state = NOTHING;
 	}
 
+	//A TYPE_INT_ARGB copy, the solver reads and writes its pixels directly
+	static BufferedImage copy(BufferedImage img) {
+		int w = img.getWidth(), h = img.getHeight();
+		BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		bi.setRGB(0, 0, w, h, img.getRGB(0, 0, w, h, null, 0, w), 0, w);
+		return bi;
+	}
+
 	class Iterator implements Runnable {
 		public void run() {
-			double w = Float.parseFloat(tfW1.getText());
-			double r = Float.parseFloat(tfR1.getText());
-			double s = Float.parseFloat(tfR2.getText());
-			double t = Float.parseFloat(tfR3.getText());
-			double u = Float.parseFloat(tfR4.getText());
-			int iteration = 0;
-			long startTime = System.nanoTime();
-			double error = 0.0;
-			if (tfMethod.getText().toUpperCase().equals("JACOBI") || tfMethod.getText().equals("")) {
-				do {
-					solver.doJacobi(mask, Width, Height);
-					synchronized(selectedImage) {
-						solver.updateImage(selectedImage);
+			//The engine does the work, the GUI only shows its progress
+			Compositor compositor = new Compositor();
+			compositor.method = tfMethod.getText();
+			//AUTO estimates w for the region, r and s are always given
+			compositor.auto = tfW1.getText().trim().equalsIgnoreCase("AUTO");
+			if (!compositor.auto) compositor.w = Float.parseFloat(tfW1.getText());
+			compositor.r = Float.parseFloat(tfR1.getText());
+			compositor.s = Float.parseFloat(tfR2.getText());
+			compositor.threads = Integer.parseInt(tfThreads.getText().trim());
+			compositor.check = tfCheck.getText();
+			compositor.telemetry = telemetry;
+			//The solver writes a frame into the back buffer at most FPS times a
+			//second and the EDT swaps it in, the next frame waits for the swap
+			BufferedImage[] back = { copy(selectedImage) };
+			AtomicBoolean pending = new AtomicBoolean();
+			long[] shown = { 0 };
+			compositor.progress = new Compositor.Progress() {
+				//Whether this iteration is a frame, decided by shows and kept
+				//until update has used it
+				boolean frame;
+				int frameIteration = -1;
+
+				public boolean shows(int iteration) {
+					if (iteration != frameIteration) {
+						frameIteration = iteration;
+						frame = System.nanoTime() - shown[0] >= 1000000000L / FPS && !pending.get();
 					}
-		        	canvas.repaint();
-					error = solver.getError(mask, Width, Height);
-					iteration++;
-		        	label.setText(String.format("%d", iteration));
-				} while (error > 1.0 && state == BLENDING);
-				taNote.append(">>> JACOBI\n");
+					return frame;
+				}
 
-			}
-			if (tfMethod.getText().toUpperCase().equals("GS")) {
-				do {
-					solver.doGS(mask, Width, Height);
-					synchronized(selectedImage) {
-						solver.updateImage(selectedImage);
-					}
-		        	canvas.repaint();
-					error = solver.getError(mask, Width, Height);
-					iteration++;
-		        	label.setText(String.format("%d", iteration));
-				} while (error > 1.0 && state == BLENDING);
-				taNote.append(">>> GS\n");
-			}
-			if (tfMethod.getText().toUpperCase().equals("SOR")) {
-				do {
-					solver.doSOR(mask, Width, Height, w);
-					synchronized(selectedImage) {
-						solver.updateImage(selectedImage);
-					}
-		        	canvas.repaint();
-					error = solver.getError(mask, Width, Height);
-					iteration++;
-		        	label.setText(String.format("%d", iteration));
-				} while (error > 1.0 && state == BLENDING);
-				taNote.append(String.format(">>> SOR, w=%.2f\n", w));
-			}
-			if (tfMethod.getText().toUpperCase().equals("AOR")) {
-				do {
-					solver.doAOR(mask, Width, Height, w, r);
-					synchronized(selectedImage) {
-						solver.updateImage(selectedImage);
-					}
-		        	canvas.repaint();
-					error = solver.getError(mask, Width, Height);
-					iteration++;
-		        	label.setText(String.format("%d", iteration));
-				} while (error > 1.0 && state == BLENDING);
-				taNote.append(String.format(">>> AOR, w=%.2f, r=%.2f\n", w, r));
-			}
-			if (tfMethod.getText().toUpperCase().equals("TOR")) {
-				do {
-					solver.doTOR(mask, Width, Height, w, r, s);
-					synchronized(selectedImage) {
-						solver.updateImage(selectedImage);
-					}
-		        	canvas.repaint();
-					error = solver.getError(mask, Width, Height);
-					iteration++;
-		        	label.setText(String.format("%d", iteration));
-				} while (error > 1.0 && state == BLENDING);
-				taNote.append(String.format(">>> TOR, w=%.2f, r=%.2f, s=%.2f\n", w, r,s));
-			}
-			if (tfMethod.getText().toUpperCase().equals("RGS")) {
-				do {
-					solver.doRGS(mask, Width, Height);
-//					solver.fillRGS(mask, Width, Height);
-					synchronized(selectedImage) {
-						solver.updateImage(selectedImage);
+				public boolean update(int iteration, double error) {
+					boolean show = shows(iteration);
+					frameIteration = -1;
+					if (show) {
+						shown[0] = System.nanoTime();
+						solver.updateImage(back[0]);
+						pending.set(true);
+						SwingUtilities.invokeLater(() -> {
+							BufferedImage front = selectedImage;
+							selectedImage = back[0];
+							back[0] = front;
+							canvas.repaint();
+							label.setText(String.format("%d", iteration));
+							pending.set(false);
+						});
 					}
-		        	canvas.repaint();
-					error = solver.getRError(mask, Width, Height);
-					iteration++;
-		        	label.setText(String.format("%d", iteration));
-				} while (error > 1.0 && state == BLENDING);
-
-				solver.fillRGS(mask, Width, Height);
-				synchronized(selectedImage) {
-					solver.updateImage(selectedImage);
+					return state == BLENDING;
 				}
-		        canvas.repaint();
-				taNote.append(">>> RGS\n");
+			};
+			long startTime = System.nanoTime();
+			try {
+				compositor.solve(solver);
+			}
+			catch (IllegalArgumentException e) {
+				//e.g. DST on a selection that isn't a rectangle, nothing was solved
+				SwingUtilities.invokeLater(() -> {
+					taNote.append(e.getMessage() + "\n");
+					dragValid = false;
+					state = DRAGGING;
+				});
+				return;
 			}
-
-			finalizeBlending();
 			long stopTime = System.nanoTime();
-			long elapsed = stopTime - startTime;
-			elapsed = TimeUnit.NANOSECONDS.toMillis(elapsed); // Total elapsed in ms
-		    label.setText(String.format("Iteration: %d| Elapsed: %d min, %d sec, %d ms| SRE: %.4f",
-		                  iteration, (elapsed/1000) / 60, (elapsed/1000) % 60, (elapsed%60000) % 1000, error));
-
-		    // Print out text area
-		    taNote.append("Target: " + targetFilename + "\n");
-			taNote.append("Iteration: " + Integer.toString(iteration) + "\n");
-			taNote.append(String.format("Elapsed: %d min, %d sec, %d ms\n",
-			                           (elapsed/1000) / 60,
-			                           (elapsed/1000) % 60,
-			                           (elapsed%60000) % 1000));
-			taNote.append(String.format("Error: %.4f\n", error));
+			int iteration = compositor.iterations;
+			double error = compositor.error;
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(stopTime - startTime); // Total elapsed in ms
+
+			//The last frame and the report, after any frame still queued
+			SwingUtilities.invokeLater(() -> {
+				solver.updateImage(selectedImage);
+				canvas.repaint();
+				taNote.append(compositor.note);
+
+				finalizeBlending();
+			    label.setText(String.format("Iteration: %d| Elapsed: %d min, %d sec, %d ms| SRE: %.4f",
+			                  iteration, (elapsed/1000) / 60, (elapsed/1000) % 60, (elapsed%60000) % 1000, error));
+
+			    // Print out text area
+			    taNote.append("Target: " + targetFilename + "\n");
+				taNote.append("Iteration: " + Integer.toString(iteration) + "\n");
+				taNote.append(String.format("Elapsed: %d min, %d sec, %d ms\n",
+				                           (elapsed/1000) / 60,
+				                           (elapsed/1000) % 60,
+				                           (elapsed%60000) % 1000));
+				taNote.append(String.format("Error: %.4f\n", error));
+				taNote.append(telemetry.summary() + "\n");
+			});
 		}
 	}
 
@@ -586,27 +659,20 @@ public class Blender extends JFrame implements ActionListener,
     	}
 
 		try {
-			BufferedWriter fw = new BufferedWriter(new FileWriter(saveFilename));
-			fw.write(Integer.toString(selectionBorder.size()));
-			fw.newLine();
-			for (int i = 0; i < selectionBorder.size(); i++) {
-				fw.write(String.format("%d %d", selectionBorder.get(i).x, selectionBorder.get(i).y));
-			    fw.newLine();
-			}
-			fw.write(Integer.toString(selectionArea.size()));
-			fw.newLine();
-			for (int i = 0; i < selectionArea.size(); i++) {
-				fw.write(String.format("%d %d", selectionArea.get(i).x, selectionArea.get(i).y));
-			    fw.newLine();
-			}
-			fw.write(String.format("%d %d %d %d", xMin, yMin, xMax, yMax));
-			fw.newLine();
-			fw.flush();
-			fw.close();
+			Region region = new Region();
+			region.border = selectionBorder;
+			region.area = selectionArea;
+			region.xMin = xMin;
+			region.yMin = yMin;
+			region.xMax = xMax;
+			region.yMax = yMax;
+			region.save(new File(saveFilename));
 		} catch (IOException ex) {
 		    System.out.println("File could not be created.");
 		}
 
+		//The pixels of the selection, not those of its blend
+		BufferedImage selectedImage = blended ? selectedSource : this.selectedImage;
 		try {
 			ImageIO.write(selectedImage, "png", new File(saveFilename + ".png"));
 
@@ -642,30 +708,19 @@ public class Blender extends JFrame implements ActionListener,
     	}
 
 		try {
-			Scanner sc = new Scanner(new File(loadFilename));
-			int size = sc.nextInt();
-			for (int i = 0; i < size; i++) {
-				int x = sc.nextInt();
-				int y = sc.nextInt();
-				selectionBorder.add(new Coord(x, y));
-			}
-			size = sc.nextInt();
-			for (int i = 0; i < size; i++) {
-				int x = sc.nextInt();
-				int y = sc.nextInt();
-				selectionArea.add(new Coord(x, y));
-			}
-			xMin = sc.nextInt();
-			yMin = sc.nextInt();
-			xMax = sc.nextInt();
-			yMax = sc.nextInt();
-			sc.close();
-		} catch (FileNotFoundException e) {
+			Region region = Region.load(new File(loadFilename));
+			selectionBorder.addAll(region.border);
+			selectionArea.addAll(region.area);
+			xMin = region.xMin;
+			yMin = region.yMin;
+			xMax = region.xMax;
+			yMax = region.yMax;
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
 		try {
-			selectedImage = ImageIO.read(new File(loadFilename + ".png"));
+			selectedImage = copy(ImageIO.read(new File(loadFilename + ".png")));
    		}
    		catch (Exception e) {
    			e.printStackTrace();
@@ -0,0 +1,60 @@
+
+//
+// Author: Azali Saudi
+// Date Created : 18 Oct 2026
+// Last Modified: 18 Oct 2026
+// Task: How often the iterative methods check their error
+//
+
+public class Cadence {
+	//Check every k sweeps, 0 for an interval adapted to the convergence rate
+	int every;
+	//The largest adaptive interval
+	static final int MAX_EVERY = 64;
+	//Sweep at which the next check is due
+	int next = 1;
+	//The previous check
+	int lastIteration;
+	double lastError = -1.0;
+
+    //
+    // spec is the number of sweeps between checks, or "A" (AUTO) for the
+    // adaptive interval. Anything else is an IllegalArgumentException.
+    //
+    public Cadence(String spec) {
+    	spec = spec.trim().toUpperCase();
+    	if (spec.equals("") || spec.startsWith("A")) every = 0;
+    	else if (spec.matches("[0-9]{1,9}")) every = Math.max(1, Integer.parseInt(spec));
+    	else throw new IllegalArgumentException("Expected the sweeps between error checks or AUTO, not " + spec);
+    }
+
+    //Whether sweep number iteration (counted from 1) ends with a check
+    public boolean due(int iteration) {
+    	return iteration >= next;
+    }
+
+    //Whether the last error recorded was measured after sweep number iteration
+    public boolean checked(int iteration) {
+    	return iteration == lastIteration;
+    }
+
+    //
+    // Records the error measured after sweep number iteration and returns
+    // it. The adaptive interval estimates the rate per sweep from the last
+    // two checks and waits half the sweeps it predicts are still needed to
+    // reach tol, so it never overshoots by more than about a factor of two.
+    //
+    public double record(int iteration, double error, double tol) {
+    	int step = 1;
+    	if (every > 0) step = every;
+    	else if (lastError > 0.0 && error < lastError && error > tol) {
+    		double rate = Math.pow(error / lastError, 1.0 / (iteration - lastIteration));
+    		double needed = Math.log(tol / error) / Math.log(rate);
+    		step = (int)Math.max(1, Math.min(MAX_EVERY, Math.floor(needed / 2)));
+    	}
+    	next = iteration + step;
+    	lastIteration = iteration;
+    	lastError = error;
+    	return error;
+    }
+}
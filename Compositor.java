@@ -0,0 +1,660 @@
+
+//
+// Author: Azali Saudi
+// Date Created : 18 Oct 2026
+// Last Modified: 18 Oct 2026
+// Task: The compositing engine, shared by the GUI (Blender) and the command line
+//
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.imageio.ImageIO;
+
+public class Compositor {
+	//The method and its parameters, named as in the GUI
+	public String method = "SOR";
+	public double w = 1.6;
+	public double r = 1.7;
+	public double s = 1.74;
+	//Derive the optimal SOR w from the region instead, see Solver.jacobiRadius.
+	//r and s have no such estimate and keep their values
+	public boolean auto;
+	public int threads = 1;
+	public String check = "1";
+	//Stop once the error is at most tol, or after maxIterations
+	public double tol = 1.0;
+	public int maxIterations = Integer.MAX_VALUE;
+
+	//Called after every iteration, return false to stop
+	public interface Progress {
+		boolean update(int iteration, double error);
+		//Whether the update of this iteration shows the guess of the solver,
+		//the single precision methods only copy their guess back for those
+		default boolean shows(int iteration) { return true; }
+	}
+	public Progress progress;
+
+	//Results of the last solve
+	public int iterations;
+	public double error;
+	public String note = "";
+	//With a WARM+ method, solve again from the cold guess to measure the
+	//iterations the warm start saved
+	public boolean measureSaved;
+	//Those iterations, -1 if they weren't measured
+	public int saved = -1;
+
+	//The methods solve knows, WARM+ can be put in front of any of them
+	public static final String[] METHODS = {
+		"JACOBI", "GS", "SOR", "AOR", "TOR", "AGS", "ASOR", "WGS", "WSOR", "RGS",
+		"RBGS", "RBSOR", "RBAOR", "RBTOR", "EG", "EGSOR", "MEG", "MEGSOR",
+		"MG", "RBMG", "FMG", "CG", "ICCG", "SSORCG", "BICGSTAB", "DST"
+	};
+	//F in front of these solves in single precision, see FloatSolver
+	public static final String[] FLOAT = { "JACOBI", "GS", "SOR", "RBGS", "RBSOR", "RGS" };
+	//CH in front of these solves every channel on its own thread
+	public static final String[] CHANNEL = {
+		"JACOBI", "GS", "SOR", "AOR", "TOR", "RGS", "RBGS", "RBSOR", "RBAOR", "RBTOR"
+	};
+
+	//Throws an IllegalArgumentException unless solve knows the method
+	public static void validate(String method) {
+		method = method.trim().toUpperCase();
+		if (method.startsWith("WARM+")) method = method.substring(5);
+		List<String> methods = Arrays.asList(METHODS);
+		if (method.equals("") || methods.contains(method)) return;
+		if (method.startsWith("CH") && Arrays.asList(CHANNEL).contains(method.substring(2))) return;
+		if (method.startsWith("F") && Arrays.asList(FLOAT).contains(method.substring(1))) return;
+		throw new IllegalArgumentException("Unknown method " + method + ", expected one of " +
+		                                   String.join(" ", METHODS) + ", CH + one of " + String.join(" ", CHANNEL) +
+		                                   ", F + one of " + String.join(" ", FLOAT) + ", optionally after WARM+");
+	}
+
+	//History and timings of the last solve, see Telemetry
+	public Telemetry telemetry = new Telemetry();
+	//The last sweep given to report
+	int lastReported;
+
+	//measured tells whether error was measured after this sweep, otherwise
+	//it is the last measured one (see Cadence)
+	boolean report(int iteration, double error, boolean measured) {
+		if (iteration != lastReported) telemetry.sweep(iteration, error, measured);
+		lastReported = iteration;
+		boolean go = progress == null || progress.update(iteration, error);
+		return go && iteration < maxIterations;
+	}
+
+    //
+    // Runs the method on the solver until it converges or is stopped. DST
+    // throws an IllegalArgumentException for a selection that doesn't fill
+    // its bounding box.
+    //
+    public void solve(Solver solver) {
+		String method = this.method.trim().toUpperCase();
+		validate(method);
+		DirectSolver direct = method.endsWith("DST") ? new DirectSolver(solver) : null;
+		if (direct != null && !direct.rectangular)
+			throw new IllegalArgumentException(String.format("DST needs a rectangular selection, this one has %d of the %dx%d pixels of its bounding box, use FMG instead",
+			                                                 solver.N, direct.nx, direct.ny));
+		telemetry.begin(method, solver);
+		lastReported = -1;
+		double rho = auto ? solver.jacobiRadius(1e-3, 10000) : 0.0;
+		double w = auto ? Solver.optimalW(rho) : this.w;
+		double r = this.r, s = this.s;
+		int iteration = 0;
+		solver.setThreads(threads);
+		Cadence cadence = new Cadence(check);
+		double error = 0.0;
+		note = "";
+
+		//WARM+ in front of a method (e.g. WARM+SOR) starts it from a coarse grid solution
+		boolean warmStart = method.startsWith("WARM+");
+		double cold = 0.0, warm = 0.0;
+		double[][] coldGuess = null;
+		saved = -1;
+		if (warmStart) {
+			method = method.substring(5);
+			if (measureSaved) coldGuess = copy(solver.U);
+			boolean rotated = method.endsWith("RGS") || method.equals("BICGSTAB");
+			cold = rotated ? solver.getRError() : solver.getError();
+			new Multigrid(solver, false).warmStart();
+			warm = rotated ? solver.getRError() : solver.getError();
+			report(0, warm, true);
+		}
+		if (method.equals("JACOBI") || method.equals("")) {
+			do {
+				solver.measure = cadence.due(iteration + 1);
+				solver.doJacobi();
+				if (solver.measure) error = cadence.record(iteration + 1, solver.lastError(), tol);
+				iteration++;
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+			note = ">>> JACOBI\n";
+
+		}
+		if (method.equals("GS")) {
+			do {
+				solver.measure = cadence.due(iteration + 1);
+				solver.doGS();
+				if (solver.measure) error = cadence.record(iteration + 1, solver.lastError(), tol);
+				iteration++;
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+			note = ">>> GS\n";
+		}
+		if (method.equals("SOR")) {
+			do {
+				solver.measure = cadence.due(iteration + 1);
+				solver.doSOR(w);
+				if (solver.measure) error = cadence.record(iteration + 1, solver.lastError(), tol);
+				iteration++;
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+			note = String.format(">>> SOR, w=%.2f\n", w);
+		}
+		if (method.equals("AOR")) {
+			do {
+				solver.measure = cadence.due(iteration + 1);
+				solver.doAOR(w, r);
+				if (solver.measure) error = cadence.record(iteration + 1, solver.lastError(), tol);
+				iteration++;
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+			note = String.format(">>> AOR, w=%.2f, r=%.2f\n", w, r);
+		}
+		if (method.equals("TOR")) {
+			do {
+				solver.measure = cadence.due(iteration + 1);
+				solver.doTOR(w, r, s);
+				if (solver.measure) error = cadence.record(iteration + 1, solver.lastError(), tol);
+				iteration++;
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+			note = String.format(">>> TOR, w=%.2f, r=%.2f, s=%.2f\n", w, r,s);
+		}
+		if (method.equals("AGS") || method.equals("ASOR")) {
+			//Active set, only the unknowns that still move (or whose neighbours
+			//do) are swept. The first and every 16th sweep are full ones, so is
+			//the one after the set ran empty; only those measure the error,
+			//which is then the exact getError of the iterate.
+			double omega = method.equals("AGS") ? 1.0 : w;
+			//If no unknown moves by more, the residual is about tol
+			double threshold = omega * tol / (4*Math.sqrt(3.0 * Math.max(1, solver.N)));
+			long updates = 0;
+			boolean full = true;
+			int checked = 0;
+			do {
+				if (full || (iteration + 1) % 16 == 0) {
+					solver.measure = true;
+					solver.doSOR(omega);
+					solver.measure = false;
+					error = solver.lastError();
+					checked = iteration + 1;
+					solver.activateAll();
+					updates += 3L * solver.N;
+					full = false;
+				}
+				else {
+					long n = solver.doActiveSOR(omega, threshold);
+					updates += n;
+					full = n == 0;
+				}
+				iteration++;
+			} while (error > tol && report(iteration, error, checked == iteration));
+			if (method.equals("AGS")) note = String.format(">>> AGS, %.1f full sweeps of work\n", updates / (3.0 * solver.N));
+			else note = String.format(">>> ASOR, w=%.2f, %.1f full sweeps of work\n", w, updates / (3.0 * solver.N));
+		}
+		if (method.equals("WGS") || method.equals("WSOR")) {
+			//Temporal blocking, the sweeps up to the next error check are made
+			//in one wavefront pass
+			double omega = method.equals("WGS") ? 1.0 : w;
+			do {
+				int sweeps = 1;
+				while (!cadence.due(iteration + sweeps)) sweeps++;
+				solver.doWavefrontSOR(sweeps, omega);
+				iteration += sweeps;
+				error = cadence.record(iteration, solver.getError(), tol);
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+			if (method.equals("WGS")) note = ">>> WGS\n";
+			else note = String.format(">>> WSOR, w=%.2f\n", w);
+		}
+		if (method.startsWith("F") && !method.equals("FMG")) {
+			//Single precision e.g. FRBSOR, the guess is copied back into the
+			//solver for the progress and at the end
+			String base = method.substring(1);
+			FloatSolver fs = new FloatSolver(solver);
+			boolean rotated = base.equals("RGS");
+			do {
+				if (base.equals("JACOBI")) fs.doJacobi();
+				else if (base.equals("GS")) fs.doGS();
+				else if (base.equals("SOR")) fs.doSOR(w);
+				else if (base.equals("RBGS")) fs.doRBGS();
+				else if (base.equals("RBSOR")) fs.doRBSOR(w);
+				else if (rotated) fs.doRGS();
+				else throw new IllegalArgumentException("No single precision " + base);
+				if (cadence.due(iteration + 1))
+					error = cadence.record(iteration + 1, rotated ? fs.getRError() : fs.getError(), tol);
+				iteration++;
+				if (progress != null && progress.shows(iteration)) fs.store();
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+
+			if (rotated) fs.fillRGS();
+			fs.store();
+			report(iteration, error, true);
+			note = String.format(">>> F%s, w=%.2f\n", base, w);
+		}
+		if (method.equals("RGS")) {
+			do {
+				solver.measure = cadence.due(iteration + 1);
+				solver.doRGS();
+//					solver.fillRGS();
+				if (solver.measure) error = cadence.record(iteration + 1, solver.lastError(), tol);
+				iteration++;
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+
+			solver.fillRGS();
+			report(iteration, error, true);
+			note = ">>> RGS\n";
+		}
+		if (method.equals("RBGS")) {
+			do {
+				solver.doRBGS();
+				//The parallel sweeps aren't fused, only the cadence applies
+				if (cadence.due(iteration + 1))
+					error = cadence.record(iteration + 1, solver.getError(), tol);
+				iteration++;
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+			note = String.format(">>> RBGS, threads=%d\n", threads);
+		}
+		if (method.equals("RBSOR")) {
+			do {
+				solver.doRBSOR(w);
+				//The parallel sweeps aren't fused, only the cadence applies
+				if (cadence.due(iteration + 1))
+					error = cadence.record(iteration + 1, solver.getError(), tol);
+				iteration++;
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+			note = String.format(">>> RBSOR, w=%.2f, threads=%d\n", w, threads);
+		}
+		if (method.equals("RBAOR")) {
+			do {
+				solver.doRBAOR(w, r);
+				//The parallel sweeps aren't fused, only the cadence applies
+				if (cadence.due(iteration + 1))
+					error = cadence.record(iteration + 1, solver.getError(), tol);
+				iteration++;
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+			note = String.format(">>> RBAOR, w=%.2f, r=%.2f, threads=%d\n", w, r, threads);
+		}
+		if (method.equals("RBTOR")) {
+			do {
+				solver.doRBTOR(w, r, s);
+				//The parallel sweeps aren't fused, only the cadence applies
+				if (cadence.due(iteration + 1))
+					error = cadence.record(iteration + 1, solver.getError(), tol);
+				iteration++;
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+			note = String.format(">>> RBTOR, w=%.2f, r=%.2f, s=%.2f, threads=%d\n", w, r, s, threads);
+		}
+		if (method.equals("EG") || method.equals("EGSOR") ||
+		    method.equals("MEG") || method.equals("MEGSOR")) {
+			//Explicit Group, 2x2 blocks in red-black block order (parallel)
+			boolean skewed = method.startsWith("M");
+			double omega = method.endsWith("SOR") ? w : 1.0;
+			do {
+				if (skewed) solver.doMEGSOR(omega);
+				else solver.doEGSOR(omega);
+				if (cadence.due(iteration + 1))
+					error = cadence.record(iteration + 1, skewed ? solver.getRError() : solver.getError(), tol);
+				iteration++;
+			} while (error > tol && report(iteration, error, cadence.checked(iteration)));
+
+			if (skewed) {
+				solver.fillRGS();
+				report(iteration, error, true);
+			}
+			if (method.endsWith("SOR")) note = String.format(">>> %s, w=%.2f, threads=%d\n", method, w, threads);
+			else note = String.format(">>> %s, threads=%d\n", method, threads);
+		}
+		if (method.equals("MG") ||
+		    method.equals("RBMG")) {
+			//One V-cycle per iteration, RBMG smooths with the parallel RB-GS
+			Multigrid mg = new Multigrid(solver, method.equals("RBMG"));
+			do {
+				mg.vcycle();
+				error = solver.getError();
+				iteration++;
+			} while (error > tol && report(iteration, error, true));
+			note = String.format(">>> %s, levels=%d\n", method, mg.levels.length);
+		}
+		if (method.equals("FMG")) {
+			//Full multigrid first, then V-cycles if that is not enough
+			Multigrid mg = new Multigrid(solver, false);
+			do {
+				if (iteration == 0) mg.fmg();
+				else mg.vcycle();
+				error = solver.getError();
+				iteration++;
+			} while (error > tol && report(iteration, error, true));
+			note = String.format(">>> FMG, levels=%d\n", mg.levels.length);
+		}
+		if (method.equals("CG") ||
+		    method.equals("ICCG") ||
+		    method.equals("SSORCG")) {
+			//Preconditioned conjugate gradient, SSORCG uses w as the SSOR factor
+			int precond = method.equals("CG") ? Krylov.JACOBI :
+			              method.equals("ICCG") ? Krylov.IC : Krylov.SSOR;
+			Krylov krylov = new Krylov(solver, false, precond, w);
+			do {
+				krylov.iterate();
+				error = solver.getError();
+				iteration++;
+			} while (error > tol && report(iteration, error, true));
+			note = ">>> " + method + "\n";
+		}
+		if (method.equals("BICGSTAB")) {
+			//IC(0) preconditioned BiCGSTAB on the rotated grid, then filled like RGS
+			Krylov krylov = new Krylov(solver, true, Krylov.IC, w);
+			do {
+				krylov.iterate();
+				error = solver.getRError();
+				iteration++;
+			} while (error > tol && report(iteration, error, true));
+
+			solver.fillRGS();
+			report(iteration, error, true);
+			note = ">>> BICGSTAB\n";
+		}
+		if (method.startsWith("CH")) {
+			//Channel-parallel mode e.g. CHSOR, every channel is solved on its
+			//own thread and stops as soon as its own error is small enough
+			String base = method.substring(2);
+			Solver.Sweep sweep = null;
+			if (base.equals("JACOBI")) sweep = ch -> solver.doJacobi(ch);
+			if (base.equals("GS")) sweep = ch -> solver.doGS(ch);
+			if (base.equals("SOR")) sweep = ch -> solver.doSOR(ch, w);
+			if (base.equals("AOR")) sweep = ch -> solver.doAOR(ch, w, r);
+			if (base.equals("TOR")) sweep = ch -> solver.doTOR(ch, w, r, s);
+			if (base.equals("RGS")) sweep = ch -> solver.doRGS(ch);
+			if (base.equals("RBGS")) sweep = ch -> solver.doRBGS(ch);
+			if (base.equals("RBSOR")) sweep = ch -> solver.doRBSOR(ch, w);
+			if (base.equals("RBAOR")) sweep = ch -> solver.doRBAOR(ch, w, r);
+			if (base.equals("RBTOR")) sweep = ch -> solver.doRBTOR(ch, w, r, s);
+			boolean rotated = base.equals("RGS");
+			if (sweep != null) {
+				Solver.Channel[] channels = solver.startChannels(sweep, rotated, tol / Math.sqrt(3.0));
+				boolean interrupted = false;
+				while (!solver.channelsDone()) {
+					int most = 0;
+					double total = 0.0;
+					for (Solver.Channel channel : channels) {
+						most = Math.max(most, channel.iterations);
+						total += channel.error * channel.error;
+					}
+					if (!report(most, Math.sqrt(total), true)) solver.stopChannels();
+					try {
+						Thread.sleep(40);
+					}
+					catch (InterruptedException e) {
+						solver.stopChannels();
+						interrupted = true;
+					}
+				}
+				solver.joinChannels();
+				//Set again once the channels have stopped, so that the caller sees it
+				if (interrupted) Thread.currentThread().interrupt();
+				for (Solver.Channel channel : channels)
+					iteration = Math.max(iteration, channel.iterations);
+				error = rotated ? solver.getRError() : solver.getError();
+
+				if (rotated) solver.fillRGS();
+				report(iteration, error, true);
+				note = String.format(">>> CH%s, w=%.2f, iterations R/G/B=%d/%d/%d\n", base, w,
+				                     channels[0].iterations, channels[1].iterations, channels[2].iterations);
+			}
+		}
+		if (method.equals("DST")) {
+			//Direct solve of the rectangular selection, V-cycles only if the
+			//rounding leaves it above tol
+			Multigrid mg = null;
+			do {
+				if (iteration == 0) direct.solve();
+				else {
+					if (mg == null) mg = new Multigrid(solver, false);
+					mg.vcycle();
+				}
+				error = solver.getError();
+				iteration++;
+			} while (error > tol && report(iteration, error, true));
+			note = String.format(">>> DST, box=%dx%d\n", direct.nx, direct.ny);
+		}
+
+		if (warmStart) note += String.format(">>> warm start, error %.1f -> %.1f\n", cold, warm);
+		//The same method from the cold guess, with the same parameters, then
+		//the warm solution is put back
+		if (coldGuess != null && error <= tol) {
+			double[][] warmSolution = copy(solver.U);
+			copy(coldGuess, solver.U);
+			Compositor baseline = new Compositor();
+			baseline.method = method;
+			baseline.w = w;
+			baseline.r = r;
+			baseline.s = s;
+			baseline.threads = threads;
+			baseline.check = check;
+			baseline.tol = tol;
+			baseline.maxIterations = maxIterations;
+			baseline.solve(solver);
+			copy(warmSolution, solver.U);
+			saved = baseline.iterations - iteration;
+			note += String.format(">>> %d iterations without the warm start, %d saved\n", baseline.iterations, saved);
+		}
+
+		if (auto) note += String.format(">>> auto, rho=%.6f, w=%.4f\n", rho, w);
+
+		//The loops stop before reporting the sweep that converged, which
+		//always measured its error
+		if (iteration != lastReported) telemetry.sweep(iteration, error, true);
+		telemetry.end(iteration, error, tol);
+		this.iterations = iteration;
+		this.error = error;
+	}
+
+	static double[][] copy(double[][] a) {
+		double[][] b = new double[a.length][];
+		for (int k = 0; k < a.length; k++) b[k] = a[k].clone();
+		return b;
+	}
+
+	static void copy(double[][] from, double[][] to) {
+		for (int k = 0; k < from.length; k++) System.arraycopy(from[k], 0, to[k], 0, from[k].length);
+	}
+
+	//Where the GUI draws the source image, region files are in its canvas coordinates
+	public static final int SOURCE_X = Blender.Width/2;
+	public static final int SOURCE_Y = 0;
+
+    //
+    // Composites the region of source (drawn at SOURCE_X, SOURCE_Y as in the
+    // GUI) onto target, moved by (dx, dy), and returns the result. With a
+    // null source the pixels are taken from the image saved with the region.
+    //
+    public BufferedImage composite(BufferedImage target, BufferedImage source,
+    								Region region, BufferedImage regionImage, int dx, int dy) {
+    	int W = target.getWidth();
+    	int H = target.getHeight();
+    	BufferedImage image = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+    	image.setRGB(0, 0, W, H, target.getRGB(0, 0, W, H, null, 0, W), 0, W);
+
+		int[][] mask = region.mask(W, H, dx, dy);
+		int xMin = region.xMin + dx;
+		int yMin = region.yMin + dy;
+		BufferedImage selectedImage = regionImage;
+		if (regionImage != null) {
+			//An int image, the solver reads and writes its pixels directly
+			int w = regionImage.getWidth(), h = regionImage.getHeight();
+			selectedImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+			selectedImage.setRGB(0, 0, w, h, regionImage.getRGB(0, 0, w, h, null, 0, w), 0, w);
+		}
+		if (source != null) {
+			selectedImage = new BufferedImage(Math.max(1, region.xMax - region.xMin),
+			                                  Math.max(1, region.yMax - region.yMin), BufferedImage.TYPE_INT_ARGB);
+			Coords area = region.area;
+			for (int i = 0; i < area.size(); i++) {
+				int x = area.x(i) - SOURCE_X;
+				int y = area.y(i) - SOURCE_Y;
+				if (x < 0 || x >= source.getWidth() || y < 0 || y >= source.getHeight())
+					continue;
+				if (area.x(i) - region.xMin >= selectedImage.getWidth() || area.y(i) - region.yMin >= selectedImage.getHeight())
+					continue;
+				selectedImage.setRGB(area.x(i) - region.xMin, area.y(i) - region.yMin, 0xFF000000 | source.getRGB(x, y));
+			}
+		}
+
+		telemetry.beginSetup();
+		Solver solver = new Solver(mask, image, selectedImage, xMin, yMin, W, H, false);
+		telemetry.endSetup(solver);
+		solve(solver);
+		solver.updateImage(selectedImage);
+		solver.setThreads(1);
+
+		//Paste the area like Blender.finalizeBlending
+		for (int i = 0; i < region.area.size(); i++) {
+			int x = region.area.x(i) + dx;
+			int y = region.area.y(i) + dy;
+			int selX = x - xMin;
+			int selY = y - yMin;
+			if (x < 0 || x >= W || y < 0 || y >= H)
+				continue;
+			if (selX >= selectedImage.getWidth() || selY >= selectedImage.getHeight())
+				continue;
+			int RGB = selectedImage.getRGB(selX, selY);
+			if ((RGB >>> 24) != 0) image.setRGB(x, y, RGB);
+		}
+		return image;
+    }
+
+    //A relaxation factor given as name, an auto w is handled by the caller
+    static double factor(String arg, String name) {
+    	try {
+    		return Double.parseDouble(arg.trim());
+    	}
+    	catch (NumberFormatException e) {
+    		if (arg.trim().equalsIgnoreCase("AUTO"))
+    			throw new IllegalArgumentException("Only w can be auto, give " + name + " as a number");
+    		throw new IllegalArgumentException("Expected a number for " + name + ", not " + arg);
+    	}
+    }
+
+    //
+    // One job: target source|- region dx dy output [method] [w] [r] [s]
+    //
+    static String run(String[] args) throws IOException {
+    	if (args.length < 6)
+    		throw new IllegalArgumentException("Expected: target source|- region dx dy output [method] [w] [r] [s]");
+    	Compositor compositor = new Compositor();
+    	compositor.measureSaved = coldBaseline;
+    	compositor.threads = solverThreads > 0 ? solverThreads : Runtime.getRuntime().availableProcessors();
+    	if (args.length > 6) compositor.method = args[6];
+    	validate(compositor.method);
+    	if (args.length > 7) {
+    		compositor.auto = args[7].equalsIgnoreCase("AUTO");
+    		if (!compositor.auto) compositor.w = factor(args[7], "w");
+    	}
+    	if (args.length > 8) compositor.r = factor(args[8], "r");
+    	if (args.length > 9) compositor.s = factor(args[9], "s");
+
+    	BufferedImage target = ImageIO.read(new File(args[0]));
+    	BufferedImage source = args[1].equals("-") ? null : ImageIO.read(new File(args[1]));
+    	Region region = Region.load(new File(args[2]));
+    	BufferedImage regionImage = source == null ? ImageIO.read(new File(args[2] + ".png")) : null;
+    	int dx = Integer.parseInt(args[3]);
+    	int dy = Integer.parseInt(args[4]);
+
+    	long startTime = System.nanoTime();
+    	BufferedImage result = compositor.composite(target, source, region, regionImage, dx, dy);
+    	long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    	ImageIO.write(result, "png", new File(args[5]));
+    	String telemetry = "";
+    	if (writeTelemetry) {
+    		compositor.telemetry.writeCSV(new File(args[5] + ".csv"));
+    		compositor.telemetry.writeJSON(new File(args[5] + ".json"));
+    		telemetry = " " + compositor.telemetry.summary();
+    	}
+    	return String.format("%s: %s iterations=%d error=%.4f elapsed=%d ms%s%s", args[5],
+    	                     compositor.method.toUpperCase(), compositor.iterations, compositor.error, elapsed,
+    	                     compositor.saved >= 0 ? " saved=" + compositor.saved : "", telemetry);
+    }
+
+    //Write <output>.csv and <output>.json next to every output, see Telemetry
+    static boolean writeTelemetry;
+    //Measure the iterations saved by WARM+ methods, see measureSaved
+    static boolean coldBaseline;
+    //Worker threads of each solve (Compositor.threads), 0 for the default
+    static int solverThreads;
+
+    //
+    // Usage:
+    //   java Compositor target source|- region dx dy output [method] [w] [r] [s]
+    //   java Compositor -batch jobs [threads]
+    // A jobs file has the arguments of one composite per line. The jobs run on
+    // a pool of threads (one per processor by default), one solver per job.
+    // Options in front of either:
+    //   -telemetry  also writes the convergence history of every output to
+    //               <output>.csv and <output>.json
+    //   -cold       solves WARM+ methods once more without the warm start and
+    //               prints the iterations saved
+    //   -threads N  worker threads of each solve, for the parallel methods
+    //               (red-black, EG, CH); one per processor by default, one in
+    //               a batch, whose jobs already run in parallel
+    //
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		while (args.length > 0 && (args[0].equals("-telemetry") || args[0].equals("-cold") || args[0].equals("-threads"))) {
+			int used = 1;
+			if (args[0].equals("-telemetry")) writeTelemetry = true;
+			else if (args[0].equals("-cold")) coldBaseline = true;
+			else {
+				if (args.length < 2 || !args[1].matches("[1-9][0-9]*")) {
+					System.out.println("Expected: -threads N, N at least 1");
+					System.exit(1);
+				}
+				solverThreads = Integer.parseInt(args[1]);
+				used = 2;
+			}
+			args = Arrays.copyOfRange(args, used, args.length);
+		}
+		if (args.length > 0 && args[0].equals("-batch")) {
+			if (solverThreads == 0) solverThreads = 1;
+			int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+			BufferedReader br = new BufferedReader(new FileReader(args[1]));
+			String line;
+			while ((line = br.readLine()) != null) {
+				line = line.trim();
+				if (line.equals("") || line.startsWith("#")) continue;
+				String[] job = line.split("\\s+");
+				results.add(pool.submit(() -> run(job)));
+			}
+			br.close();
+			int failed = 0;
+			for (Future<String> result : results) {
+				try {
+					System.out.println(result.get());
+				}
+				catch (ExecutionException e) {
+					System.out.println("Failed: " + e.getCause());
+					failed++;
+				}
+			}
+			pool.shutdown();
+			if (failed > 0) System.exit(1);
+			return;
+		}
+		try {
+			System.out.println(run(args));
+		}
+		catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+
+//
+// Author: Azali Saudi
+// Date Created : 18 Oct 2026
+// Last Modified: 18 Oct 2026
+// Task: A list of pixel coordinates kept in two int arrays instead of one object each
+//
+
+import java.util.Arrays;
+
+public class Coords {
+	//Coordinates relative to the offset (ox, oy), so that moving the whole
+	//list only moves the offset
+	int[] xs = new int[16];
+	int[] ys = new int[16];
+	int size;
+	int ox, oy;
+
+	public int size() {
+		return size;
+	}
+
+	public int x(int i) {
+		return xs[i] + ox;
+	}
+
+	public int y(int i) {
+		return ys[i] + oy;
+	}
+
+	public void add(int x, int y) {
+		if (size == xs.length) {
+			xs = Arrays.copyOf(xs, 2*size);
+			ys = Arrays.copyOf(ys, 2*size);
+		}
+		xs[size] = x - ox;
+		ys[size] = y - oy;
+		size++;
+	}
+
+	public void addAll(Coords c) {
+		for (int i = 0; i < c.size; i++)
+			add(c.x(i), c.y(i));
+	}
+
+	public void clear() {
+		size = 0;
+		ox = 0;
+		oy = 0;
+	}
+
+	public void translate(int dx, int dy) {
+		ox += dx;
+		oy += dy;
+	}
+}
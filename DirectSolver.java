@@ -0,0 +1,219 @@
+
+//
+// Author: Azali Saudi
+// Date Created : 18 Oct 2026
+// Last Modified: 18 Oct 2026
+// Task: Fast direct Poisson solver (discrete sine transform) for the system built by Solver
+//
+
+public class DirectSolver {
+	Solver solver;
+	//Bounding box of the unknowns
+	int x0, y0, nx, ny;
+	//true if the unknowns fill their bounding box, only then can it solve
+	public boolean rectangular;
+	//Right hand side of every channel in row order of the box
+	double[][] f;
+
+    //
+    // For a selection that fills its bounding box the system of the Solver
+    // is the 5-point Poisson problem of the box, its b already holds the
+    // border pixels as Dirichlet values. Any other selection can't be solved
+    // here, see rectangular.
+    //
+    public DirectSolver(Solver solver) {
+    	this.solver = solver;
+    	int N = solver.N;
+    	int x1 = 0, y1 = 0;
+    	x0 = Integer.MAX_VALUE;
+    	y0 = Integer.MAX_VALUE;
+    	for (int i = 0; i < N; i++) {
+    		if (solver.px[i] < x0) x0 = solver.px[i];
+    		if (solver.px[i] > x1) x1 = solver.px[i];
+    		if (solver.py[i] < y0) y0 = solver.py[i];
+    		if (solver.py[i] > y1) y1 = solver.py[i];
+    	}
+    	if (N == 0) { x0 = y0 = 0; x1 = y1 = -1; }
+    	nx = x1 - x0 + 1;
+    	ny = y1 - y0 + 1;
+    	rectangular = N == nx * ny;
+    	if (N == 0 || !rectangular) return;
+    	f = new double[3][N];
+    	for (int ch = 0; ch < 3; ch++) {
+    		for (int i = 0; i < N; i++)
+    			f[ch][(solver.py[i] - y0) * nx + solver.px[i] - x0] = solver.b[ch][i];
+    	}
+    }
+
+    //
+    // Solves the box problem of every channel and copies the solution into
+    // the Solver's U. The 5-point operator on the box is diagonalised by the
+    // 2D DST-I, so u = S (S f / lambda) * 4/((nx+1)(ny+1)).
+    //
+    public void solve() {
+    	if (!rectangular)
+    		throw new IllegalStateException("The selection does not fill its bounding box");
+    	if (solver.N == 0) return;
+    	FFT fftX = new FFT(2 * (nx + 1));
+    	FFT fftY = ny == nx ? fftX : new FFT(2 * (ny + 1));
+    	double[] cx = new double[nx];
+    	double[] cy = new double[ny];
+    	for (int x = 0; x < nx; x++) cx[x] = 2 * Math.cos(Math.PI * (x + 1) / (nx + 1));
+    	for (int y = 0; y < ny; y++) cy[y] = 2 * Math.cos(Math.PI * (y + 1) / (ny + 1));
+    	double scale = 4.0 / ((nx + 1) * (double)(ny + 1));
+
+    	for (int ch = 0; ch < 3; ch++) {
+    		double[] u = f[ch].clone();
+    		dst(u, 0, 1, nx, ny, nx, fftX);
+    		dst(u, 0, nx, 1, nx, ny, fftY);
+    		for (int y = 0; y < ny; y++) {
+    			for (int x = 0; x < nx; x++)
+    				u[y*nx + x] *= scale / (4 - cx[x] - cy[y]);
+    		}
+    		dst(u, 0, 1, nx, ny, nx, fftX);
+    		dst(u, 0, nx, 1, nx, ny, fftY);
+
+    		double[] U = solver.U[ch];
+    		for (int i = 0; i < solver.N; i++)
+    			U[i] = u[(solver.py[i] - y0) * nx + solver.px[i] - x0];
+    	}
+    }
+
+    //
+    // DST-I of count vectors of length len, element j of vector v being
+    // a[offset + v*step + j*stride]. The vector is extended to an odd one of
+    // length 2(len+1), whose FFT is -2i times the DST. Two real vectors are
+    // transformed at once, one in the real and one in the imaginary part.
+    //
+    static void dst(double[] a, int offset, int stride, int step, int count, int len, FFT fft) {
+    	int M = 2 * (len + 1);
+    	double[] re = new double[M];
+    	double[] im = new double[M];
+    	for (int v = 0; v < count; v += 2) {
+    		int o1 = offset + v*step;
+    		int o2 = o1 + step;
+    		boolean two = v + 1 < count;
+    		java.util.Arrays.fill(re, 0.0);
+    		java.util.Arrays.fill(im, 0.0);
+    		for (int j = 0; j < len; j++) {
+    			re[j+1] = a[o1 + j*stride];
+    			re[M-1-j] = -re[j+1];
+    			if (two) {
+    				im[j+1] = a[o2 + j*stride];
+    				im[M-1-j] = -im[j+1];
+    			}
+    		}
+    		fft.transform(re, im);
+    		for (int j = 0; j < len; j++) {
+    			a[o1 + j*stride] = -0.5 * im[j+1];
+    			if (two) a[o2 + j*stride] = 0.5 * re[j+1];
+    		}
+    	}
+    }
+
+    //
+    // Forward complex FFT of any length, radix-2 for powers of two and
+    // Bluestein's chirp-z algorithm (over a power of two) otherwise.
+    //
+    static class FFT {
+    	int n;
+    	//Radix-2
+    	double[] cos, sin;
+    	int[] rev;
+    	//Bluestein
+    	FFT inner;
+    	double[] wr, wi, br, bi, tr, ti;
+
+    	FFT(int n) {
+    		this.n = n;
+    		if ((n & (n - 1)) == 0) {
+    			int bits = Integer.numberOfTrailingZeros(n);
+    			rev = new int[n];
+    			for (int i = 0; i < n; i++)
+    				rev[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+    			cos = new double[n / 2];
+    			sin = new double[n / 2];
+    			for (int i = 0; i < n / 2; i++) {
+    				cos[i] = Math.cos(2 * Math.PI * i / n);
+    				sin[i] = Math.sin(2 * Math.PI * i / n);
+    			}
+    			return;
+    		}
+    		int m = Integer.highestOneBit(2 * n - 1) << 1;
+    		inner = new FFT(m);
+    		//Chirp w_j = exp(i pi j^2 / n), j^2 taken mod 2n to keep the angle small
+    		wr = new double[n];
+    		wi = new double[n];
+    		for (int j = 0; j < n; j++) {
+    			double angle = Math.PI * (int)((long)j * j % (2L * n)) / n;
+    			wr[j] = Math.cos(angle);
+    			wi[j] = Math.sin(angle);
+    		}
+    		br = new double[m];
+    		bi = new double[m];
+    		br[0] = wr[0];
+    		bi[0] = wi[0];
+    		for (int j = 1; j < n; j++) {
+    			br[j] = br[m-j] = wr[j];
+    			bi[j] = bi[m-j] = wi[j];
+    		}
+    		inner.transform(br, bi);
+    		tr = new double[m];
+    		ti = new double[m];
+    	}
+
+    	void transform(double[] re, double[] im) {
+    		if (inner != null) {
+    			bluestein(re, im);
+    			return;
+    		}
+    		for (int i = 0; i < n; i++) {
+    			int j = rev[i];
+    			if (j <= i) continue;
+    			double t = re[i]; re[i] = re[j]; re[j] = t;
+    			t = im[i]; im[i] = im[j]; im[j] = t;
+    		}
+    		for (int size = 2; size <= n; size <<= 1) {
+    			int half = size >> 1;
+    			int step = n / size;
+    			for (int start = 0; start < n; start += size) {
+    				for (int k = 0; k < half; k++) {
+    					int a = start + k, b = a + half;
+    					double c = cos[k*step], s = sin[k*step];
+    					double xr = re[b]*c + im[b]*s;
+    					double xi = im[b]*c - re[b]*s;
+    					re[b] = re[a] - xr;
+    					im[b] = im[a] - xi;
+    					re[a] += xr;
+    					im[a] += xi;
+    				}
+    			}
+    		}
+    	}
+
+    	//X_k = conj(w_k) * sum_j (x_j conj(w_j)) w_(k-j), a convolution
+    	void bluestein(double[] re, double[] im) {
+    		int m = tr.length;
+    		java.util.Arrays.fill(tr, 0.0);
+    		java.util.Arrays.fill(ti, 0.0);
+    		for (int j = 0; j < n; j++) {
+    			tr[j] = re[j]*wr[j] + im[j]*wi[j];
+    			ti[j] = im[j]*wr[j] - re[j]*wi[j];
+    		}
+    		inner.transform(tr, ti);
+    		for (int j = 0; j < m; j++) {
+    			double r = tr[j]*br[j] - ti[j]*bi[j];
+    			double i = tr[j]*bi[j] + ti[j]*br[j];
+    			//The inverse transform is the forward one on the conjugate
+    			tr[j] = r;
+    			ti[j] = -i;
+    		}
+    		inner.transform(tr, ti);
+    		for (int k = 0; k < n; k++) {
+    			double r = tr[k] / m, i = -ti[k] / m;
+    			re[k] = r*wr[k] + i*wi[k];
+    			im[k] = i*wr[k] - r*wi[k];
+    		}
+    	}
+    }
+}
@@ -0,0 +1,197 @@
+
+//
+// Author: Azali Saudi
+// Date Created : 18 Oct 2026
+// Last Modified: 18 Oct 2026
+// Task: Single precision solver on a dense grid, with an accuracy report against Solver
+//
+
+import java.io.File;
+
+public class FloatSolver {
+	Solver solver;
+	//The bounding box of the unknowns plus a ring of zeros, row by row. Every
+	//pixel that isn't an unknown holds 0, like the ghost of Solver, so the
+	//neighbours of cell k are simply k-1, k+1, k-W and k+W.
+	int W, H;
+	//Cell of every unknown of the Solver
+	int[] cell;
+
+	float[][] U;//Guess
+	float[][] V;//Guess (scratch)
+	float[][] b;//Target of Ax = b
+	float[][] c;//Target of Ax = c (Rotated Grid)
+	//1 at the unknowns, 0 elsewhere
+	float[] all;
+	//Cells of the red and of the black unknowns
+	int[] red, black;
+
+    public FloatSolver(Solver solver) {
+    	this.solver = solver;
+    	int N = solver.N;
+    	int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = 0, y1 = 0;
+    	for (int i = 0; i < N; i++) {
+    		x0 = Math.min(x0, solver.px[i]);
+    		x1 = Math.max(x1, solver.px[i]);
+    		y0 = Math.min(y0, solver.py[i]);
+    		y1 = Math.max(y1, solver.py[i]);
+    	}
+    	if (N == 0) { x0 = y0 = 0; x1 = y1 = -1; }
+    	W = x1 - x0 + 3;
+    	H = y1 - y0 + 3;
+    	cell = new int[N];
+    	U = new float[3][W*H];
+    	V = new float[3][W*H];
+    	b = new float[3][W*H];
+    	c = new float[3][W*H];
+    	all = new float[W*H];
+    	red = new int[solver.red.length];
+    	black = new int[solver.black.length];
+    	for (int i = 0; i < N; i++) {
+    		int k = (solver.py[i] - y0 + 1) * W + (solver.px[i] - x0 + 1);
+    		cell[i] = k;
+    		all[k] = 1.0f;
+    		for (int ch = 0; ch < 3; ch++) {
+    			U[ch][k] = V[ch][k] = (float)solver.U[ch][i];
+    			b[ch][k] = (float)solver.b[ch][i];
+    			c[ch][k] = (float)solver.c[ch][i];
+    		}
+    	}
+    	for (int j = 0; j < red.length; j++) red[j] = cell[solver.red[j]];
+    	for (int j = 0; j < black.length; j++) black[j] = cell[solver.black[j]];
+    }
+
+    //
+    // Jacobi sweeps every cell of the grid with unit stride and no branches,
+    // the mask keeps the non-unknowns at 0.
+    //
+    public void doJacobi() {
+    	for (int ch = 0; ch < 3; ch++) {
+    		jacobi(U[ch], V[ch], b[ch], all, W);
+    	}
+        float[][] T = U; U = V; V = T;
+    }
+
+    //Same order as Solver.doRBSOR, the neighbours are at fixed offsets
+    public void doRBSOR(double w) {
+    	float fw = (float)w;
+    	for (int ch = 0; ch < 3; ch++) {
+    		sor(U[ch], b[ch], red, W, fw);
+    		sor(U[ch], b[ch], black, W, fw);
+    	}
+    }
+
+    public void doRBGS() {
+    	doRBSOR(1.0);
+    }
+
+    //
+    // The natural order methods are sequential, they only gain the smaller
+    // working set. Same update order as Solver.doSOR and Solver.doRGS.
+    //
+    public void doSOR(double w) {
+    	float fw = (float)w;
+    	for (int ch = 0; ch < 3; ch++)
+    		sor(U[ch], b[ch], cell, W, fw);
+    }
+
+    public void doGS() {
+    	doSOR(1.0);
+    }
+
+    public void doRGS() {
+    	for (int ch = 0; ch < 3; ch++) {
+    		float[] u = U[ch], f = c[ch];
+    		for (int i : solver.even) {
+    			int k = cell[i];
+    			u[k] = 0.25f * (u[k-W-1] + u[k-W+1] + u[k+W-1] + u[k+W+1] + f[k]);
+    		}
+    	}
+    }
+
+    public void fillRGS() {
+    	for (int ch = 0; ch < 3; ch++) {
+    		float[] u = U[ch], f = b[ch];
+    		for (int i : solver.odd) {
+    			int k = cell[i];
+    			u[k] = 0.25f * (u[k-1] + u[k+1] + u[k-W] + u[k+W] + f[k]);
+    		}
+    	}
+    }
+
+    //v = m*(Jacobi update), the first and last rows are the zero ring
+    static void jacobi(float[] u, float[] v, float[] f, float[] m, int W) {
+    	int end = u.length - W;
+    	for (int k = W; k < end; k++)
+    		v[k] = m[k] * 0.25f * (u[k-1] + u[k+1] + u[k-W] + u[k+W] + f[k]);
+    }
+
+    static void sor(float[] u, float[] f, int[] cells, int W, float w) {
+    	for (int k : cells)
+    		u[k] = w*0.25f * (u[k-1] + u[k+1] + u[k-W] + u[k+W] + f[k]) + (1-w)*u[k];
+    }
+
+    //The residuals are summed in double, as in Solver
+    public double getError() {
+    	double total = 0.0;
+    	for (int ch = 0; ch < 3; ch++) {
+    		float[] u = U[ch], f = b[ch];
+    		for (int k : cell) {
+    			double e = f[k] + u[k-1] + u[k+1] + u[k-W] + u[k+W] - 4*u[k];
+    			total += e*e;
+    		}
+    	}
+    	return Math.sqrt(total);
+    }
+
+    public double getRError() {
+    	double total = 0.0;
+    	for (int ch = 0; ch < 3; ch++) {
+    		float[] u = U[ch], f = c[ch];
+    		for (int i : solver.even) {
+    			int k = cell[i];
+    			double e = f[k] + u[k-W-1] + u[k-W+1] + u[k+W-1] + u[k+W+1] - 4*u[k];
+    			total += e*e;
+    		}
+    	}
+    	return Math.sqrt(total);
+    }
+
+    //Copies the guess back into the Solver, e.g. for Solver.updateImage
+    public void store() {
+    	for (int ch = 0; ch < 3; ch++) {
+    		for (int i = 0; i < cell.length; i++)
+    			solver.U[ch][i] = U[ch][cell[i]];
+    	}
+    }
+
+    //
+    // Accuracy report: composites with a method and with its single
+    // precision version (F + method), then compares the two results.
+    //   java FloatSolver target source|- region dx dy [method] [w]
+    //
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		String method = args.length > 5 ? args[5].toUpperCase() : "RBSOR";
+		//Both methods must exist before anything is compared
+		Compositor.validate(method);
+		Compositor.validate("F" + method);
+		String[] job = new String[8];
+		for (int i = 0; i < 5; i++) job[i] = args[i];
+		job[7] = args.length > 6 ? args[6] : "1.6";
+
+		File f1 = File.createTempFile("double", ".png");
+		File f2 = File.createTempFile("float", ".png");
+		job[5] = f1.getPath();
+		job[6] = method;
+		System.out.println(Compositor.run(job));
+		job[5] = f2.getPath();
+		job[6] = "F" + method;
+		System.out.println(Compositor.run(job));
+
+		Tools.printPSNR(f1, f2);
+		Tools.printSSIM(f1, f2);
+		f1.delete();
+		f2.delete();
+	}
+}
@@ -0,0 +1,238 @@
+
+//
+// Author: Azali Saudi
+// Date Created : 18 Oct 2026
+// Last Modified: 18 Oct 2026
+// Task: Preconditioned Krylov solvers (CG, BiCGSTAB) for the system built by Solver
+//
+
+public class Krylov {
+	//Preconditioners
+	public static final int JACOBI = 0;
+	public static final int IC = 1;
+	public static final int SSOR = 2;
+
+	Solver solver;
+	//true for the rotated grid system (Ax = c) of doRGS, solved with BiCGSTAB
+	boolean skewed;
+	int precond;
+
+	//The assembled operator in CSR form. Row k is the unknown rows[k] of
+	//the Solver, the entries of a row are sorted by column.
+	int n;
+	int[] rows;
+	int[] ptr;
+	int[] col;
+	double[] val;
+	double[] diag;
+	//Right hand side of every channel
+	double[][] f;
+
+	//Pivots of the preconditioner, (D + L) D^-1 (D + L') for IC and SSOR
+	double[] d;
+
+	//Iteration state of every channel
+	double[][] x, r, z, p, q;
+	double[] rho;
+	//Extra state for BiCGSTAB
+	double[][] rhat, s, t;
+	double[] alpha, omega;
+
+    //
+    // Assembles the 5-point system, or with skewed the rotated one over the
+    // unknowns swept by doRGS. w is the relaxation factor of SSOR.
+    //
+    public Krylov(Solver solver, boolean skewed, int precond, double w) {
+    	this.solver = solver;
+    	this.skewed = skewed;
+    	this.precond = precond;
+
+    	int[] nb = skewed ? solver.nbX : solver.nb;
+    	if (skewed) rows = solver.even;
+    	else {
+    		rows = new int[solver.N];
+    		for (int i = 0; i < solver.N; i++) rows[i] = i;
+    	}
+    	n = rows.length;
+
+    	//Column of every unknown of the Solver, -1 if it's not in the system
+    	int[] pos = new int[solver.N+1];
+    	java.util.Arrays.fill(pos, -1);
+    	for (int k = 0; k < n; k++) pos[rows[k]] = k;
+
+    	ptr = new int[n+1];
+    	col = new int[5*n];
+    	val = new double[5*n];
+    	diag = new double[n];
+    	f = new double[3][n];
+    	//Slots of nb in column order, -1 for the unknown itself. The bottom
+    	//and left neighbours come before it, the right and up ones after it.
+    	int[] order = skewed ? new int[] {0, 1, -1, 2, 3} : new int[] {2, 0, -1, 1, 3};
+    	int m = 0;
+    	for (int k = 0; k < n; k++) {
+    		int i = rows[k];
+    		ptr[k] = m;
+    		for (int ch = 0; ch < 3; ch++)
+    			f[ch][k] = skewed ? solver.c[ch][i] : solver.b[ch][i];
+    		for (int o : order) {
+    			if (o < 0) {
+    				col[m] = k;
+    				val[m++] = 4.0;
+    				continue;
+    			}
+    			int j = nb[4*i+o];
+    			if (j == solver.N) continue;
+    			if (pos[j] >= 0) {
+    				col[m] = pos[j];
+    				val[m++] = -1.0;
+    			}
+    			else {
+    				//An unknown that is never updated (doRGS leaves the last
+    				//rows and columns alone), it's a constant of this system
+    				for (int ch = 0; ch < 3; ch++)
+    					f[ch][k] += solver.U[ch][j];
+    			}
+    		}
+    		diag[k] = 4.0;
+    	}
+    	ptr[n] = m;
+
+    	if (precond != JACOBI) {
+    		d = new double[n];
+    		for (int k = 0; k < n; k++) {
+    			if (precond == SSOR) {
+    				d[k] = diag[k] / w;
+    				continue;
+    			}
+    			//IC(0), the fill-in of L D^-1 L' of a 5-point matrix falls
+    			//outside its pattern except on the diagonal
+    			double dk = diag[k];
+    			for (int e = ptr[k]; e < ptr[k+1] && col[e] < k; e++)
+    				dk -= val[e] * val[e] / d[col[e]];
+    			d[k] = dk;
+    		}
+    	}
+
+    	x = new double[3][n];
+    	r = new double[3][n];
+    	z = new double[3][n];
+    	p = new double[3][n];
+    	q = new double[3][n];
+    	rho = new double[3];
+    	if (skewed) {
+    		rhat = new double[3][n];
+    		s = new double[3][n];
+    		t = new double[3][n];
+    		alpha = new double[3];
+    		omega = new double[3];
+    	}
+
+    	//Start from the current guess of the Solver
+    	for (int ch = 0; ch < 3; ch++) {
+    		double[] U = solver.U[ch];
+    		for (int k = 0; k < n; k++) x[ch][k] = U[rows[k]];
+    		multiply(x[ch], r[ch]);
+    		for (int k = 0; k < n; k++) r[ch][k] = f[ch][k] - r[ch][k];
+    		if (skewed) {
+    			System.arraycopy(r[ch], 0, rhat[ch], 0, n);
+    			rho[ch] = alpha[ch] = omega[ch] = 1.0;
+    		}
+    		else {
+    			precondition(r[ch], z[ch]);
+    			System.arraycopy(z[ch], 0, p[ch], 0, n);
+    			rho[ch] = dot(r[ch], z[ch]);
+    		}
+    	}
+    }
+
+    //
+    // One iteration for each channel, the Solver's U is updated so that
+    // getError (or getRError when skewed) reports its residual as usual.
+    //
+    public void iterate() {
+    	for (int ch = 0; ch < 3; ch++) {
+    		if (skewed) bicgstab(ch);
+    		else cg(ch);
+    		double[] U = solver.U[ch];
+    		for (int k = 0; k < n; k++) U[rows[k]] = x[ch][k];
+    	}
+    }
+
+    void cg(int ch) {
+    	double[] x = this.x[ch], r = this.r[ch], z = this.z[ch], p = this.p[ch], q = this.q[ch];
+    	if (rho[ch] == 0.0) return;
+    	multiply(p, q);
+    	double a = rho[ch] / dot(p, q);
+    	for (int k = 0; k < n; k++) {
+    		x[k] += a * p[k];
+    		r[k] -= a * q[k];
+    	}
+    	precondition(r, z);
+    	double rhoNew = dot(r, z);
+    	double beta = rhoNew / rho[ch];
+    	for (int k = 0; k < n; k++) p[k] = z[k] + beta * p[k];
+    	rho[ch] = rhoNew;
+    }
+
+    //Right preconditioned BiCGSTAB, q holds v and z holds p^ and s^
+    void bicgstab(int ch) {
+    	double[] x = this.x[ch], r = this.r[ch], z = this.z[ch], p = this.p[ch], v = this.q[ch];
+    	double[] rhat = this.rhat[ch], s = this.s[ch], t = this.t[ch];
+    	double rhoNew = dot(rhat, r);
+    	if (rhoNew == 0.0 || omega[ch] == 0.0) return;
+    	double beta = (rhoNew / rho[ch]) * (alpha[ch] / omega[ch]);
+    	for (int k = 0; k < n; k++) p[k] = r[k] + beta * (p[k] - omega[ch] * v[k]);
+    	precondition(p, z);
+    	multiply(z, v);
+    	double a = rhoNew / dot(rhat, v);
+    	for (int k = 0; k < n; k++) {
+    		x[k] += a * z[k];
+    		s[k] = r[k] - a * v[k];
+    	}
+    	precondition(s, z);
+    	multiply(z, t);
+    	double tt = dot(t, t);
+    	double w = tt == 0.0 ? 0.0 : dot(t, s) / tt;
+    	for (int k = 0; k < n; k++) {
+    		x[k] += w * z[k];
+    		r[k] = s[k] - w * t[k];
+    	}
+    	rho[ch] = rhoNew;
+    	alpha[ch] = a;
+    	omega[ch] = w;
+    }
+
+    //y = A x
+    void multiply(double[] x, double[] y) {
+    	for (int k = 0; k < n; k++) {
+    		double sum = 0.0;
+    		for (int e = ptr[k]; e < ptr[k+1]; e++) sum += val[e] * x[col[e]];
+    		y[k] = sum;
+    	}
+    }
+
+    //z = M^-1 r
+    void precondition(double[] r, double[] z) {
+    	if (precond == JACOBI) {
+    		for (int k = 0; k < n; k++) z[k] = r[k] / diag[k];
+    		return;
+    	}
+    	//Solve (D + L) y = r, then (I + D^-1 L') z = y
+    	for (int k = 0; k < n; k++) {
+    		double sum = r[k];
+    		for (int e = ptr[k]; e < ptr[k+1] && col[e] < k; e++) sum -= val[e] * z[col[e]];
+    		z[k] = sum / d[k];
+    	}
+    	for (int k = n-1; k >= 0; k--) {
+    		double sum = 0.0;
+    		for (int e = ptr[k+1]-1; e >= ptr[k] && col[e] > k; e--) sum += val[e] * z[col[e]];
+    		z[k] -= sum / d[k];
+    	}
+    }
+
+    static double dot(double[] a, double[] b) {
+    	double sum = 0.0;
+    	for (int k = 0; k < a.length; k++) sum += a[k] * b[k];
+    	return sum;
+    }
+}
@@ -0,0 +1,342 @@
+
+//
+// Author: Azali Saudi
+// Date Created : 18 Oct 2026
+// Last Modified: 18 Oct 2026
+// Task: Geometric multigrid (V-cycle and FMG) for the system built by Solver
+//
+
+import java.util.Arrays;
+
+public class Multigrid {
+	//Number of smoothing sweeps before and after the coarse grid correction
+	public int pre = 2;
+	public int post = 2;
+	//Smooth with the red-black GS (parallel) instead of the natural GS
+	public boolean redBlack;
+
+	Solver solver;
+	Level[] levels;
+	//Residual of the level being restricted
+	double[] scratch;
+
+	//Bilinear weights of the 4 coarse unknowns in Level.pro
+	static final double[] P = {0.5625, 0.1875, 0.1875, 0.0625};
+
+	//
+	// One grid of the hierarchy. Level 0 is the system of the Solver itself,
+	// every coarser level merges 2x2 pixels of the level above into one
+	// unknown, which is present as soon as one of its 4 children is. So an
+	// irregular mask is restricted along with the grid.
+	//
+	// Level 0 has the 5-point stencil of the Solver (nb). On a coarse level
+	// the merged pixels stick out of the fine region, so simply using the
+	// 5-point stencil again doesn't match the fine problem along the border.
+	// Instead the coarse operator is the Galerkin product P'AP, which always
+	// fits within a 5x5 stencil: an holds the 25 neighbours (ghost index n
+	// if there is none) and a their weights, the centre being slot 12.
+	//
+	static class Level {
+		int n;
+		int[] px, py;
+		int[] nb;
+		int[] red, black;
+		int[] an;
+		double[] a;
+		//For each unknown, the 4 unknowns of the next level it is
+		//interpolated from, with the weights P (ghost if missing)
+		int[] pro;
+		//Correction and right hand side (unused on level 0)
+		double[][] u, f;
+
+		//Row i of the operator of this level, returns the number of entries
+		int row(int i, int[] cols, double[] vals) {
+			int m = 0;
+			if (an == null) {
+				cols[m] = i; vals[m++] = 4.0;
+				for (int k = 4*i; k < 4*i+4; k++) {
+					if (nb[k] == n) continue;
+					cols[m] = nb[k]; vals[m++] = -1.0;
+				}
+			}
+			else {
+				for (int k = 25*i; k < 25*i+25; k++) {
+					if (an[k] == n) continue;
+					cols[m] = an[k]; vals[m++] = a[k];
+				}
+			}
+			return m;
+		}
+	}
+
+    public Multigrid(Solver solver, boolean redBlack) {
+    	this.solver = solver;
+    	this.redBlack = redBlack;
+
+    	Level L = new Level();
+    	L.n = solver.N;
+    	L.px = solver.px;
+    	L.py = solver.py;
+    	L.nb = solver.nb;
+    	L.red = solver.red;
+    	L.black = solver.black;
+
+    	Level[] all = new Level[32];
+    	int count = 0;
+    	all[count++] = L;
+    	while (L.n > 64 && count < all.length) {
+    		Level C = coarsen(L);
+    		galerkin(L, C);
+    		all[count++] = L = C;
+    	}
+    	levels = Arrays.copyOf(all, count);
+    }
+
+    //Builds the next coarser level and the transfer tables of fine
+    static Level coarsen(Level fine) {
+    	int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = 0, y1 = 0;
+    	for (int i = 0; i < fine.n; i++) {
+    		int x = fine.px[i] >> 1, y = fine.py[i] >> 1;
+    		if (x < x0) x0 = x;
+    		if (x > x1) x1 = x;
+    		if (y < y0) y0 = y;
+    		if (y > y1) y1 = y;
+    	}
+    	int bw = x1 - x0 + 1;
+    	int[] id = new int[bw * (y1 - y0 + 1)];
+    	Arrays.fill(id, -1);
+    	for (int i = 0; i < fine.n; i++)
+    		id[((fine.py[i] >> 1) - y0)*bw + (fine.px[i] >> 1) - x0] = 0;
+
+    	//Number the coarse unknowns in row order
+    	Level L = new Level();
+    	int n = 0;
+    	for (int k = 0; k < id.length; k++) {
+    		if (id[k] >= 0) id[k] = n++;
+    	}
+    	L.n = n;
+    	L.px = new int[n];
+    	L.py = new int[n];
+    	for (int k = 0; k < id.length; k++) {
+    		int i = id[k];
+    		if (i < 0) continue;
+    		L.px[i] = k % bw + x0;
+    		L.py[i] = k / bw + y0;
+    	}
+
+    	//The pixel centre of a fine unknown lies a quarter of a coarse pixel
+    	//away from the centre of its parent, towards sx, sy
+    	fine.pro = new int[4*fine.n];
+    	for (int i = 0; i < fine.n; i++) {
+    		int X = fine.px[i] >> 1, Y = fine.py[i] >> 1;
+    		int sx = (fine.px[i] & 1) == 1 ? 1 : -1;
+    		int sy = (fine.py[i] & 1) == 1 ? 1 : -1;
+    		fine.pro[4*i]   = id[(Y - y0)*bw + X - x0];
+    		fine.pro[4*i+1] = find(id, x0, y0, x1, y1, X + sx, Y, n);
+    		fine.pro[4*i+2] = find(id, x0, y0, x1, y1, X, Y + sy, n);
+    		fine.pro[4*i+3] = find(id, x0, y0, x1, y1, X + sx, Y + sy, n);
+    	}
+
+    	L.u = new double[3][n+1];
+    	L.f = new double[3][n+1];
+    	return L;
+    }
+
+    //
+    // Assembles the operator of C as P'AP, A being the operator of F. Row q
+    // of the product gets P[i][q] * A[i][j] * P[j][r] for every fine i
+    // interpolated from q and every neighbour j of i.
+    //
+    static void galerkin(Level F, Level C) {
+    	C.an = new int[25*C.n];
+    	C.a = new double[25*C.n];
+    	int[] cols = new int[25];
+    	double[] vals = new double[25];
+    	for (int i = 0; i < F.n; i++) {
+    		int m = F.row(i, cols, vals);
+    		for (int s = 0; s < 4; s++) {
+    			int q = F.pro[4*i+s];
+    			if (q == C.n) continue;
+    			for (int t = 0; t < m; t++) {
+    				int j = cols[t];
+    				for (int s2 = 0; s2 < 4; s2++) {
+    					int r = F.pro[4*j+s2];
+    					if (r == C.n) continue;
+    					int slot = 12 + 5*(C.py[r] - C.py[q]) + C.px[r] - C.px[q];
+    					C.a[25*q + slot] += P[s] * vals[t] * P[s2];
+    					C.an[25*q + slot] = r;
+    				}
+    			}
+    		}
+    	}
+    	for (int k = 0; k < C.an.length; k++) {
+    		if (C.a[k] == 0.0) C.an[k] = C.n;
+    	}
+    }
+
+    static int find(int[] id, int x0, int y0, int x1, int y1, int x, int y, int ghost) {
+    	if (x < x0 || x > x1 || y < y0 || y > y1) return ghost;
+    	int k = id[(y - y0)*(x1 - x0 + 1) + x - x0];
+    	return k < 0 ? ghost : k;
+    }
+
+    //
+    // One V-cycle on the Solver's system for each channel.
+    //
+    public void vcycle() {
+    	for (int ch = 0; ch < 3; ch++)
+    		cycle(0, solver.U[ch], solver.b[ch], ch);
+    }
+
+    //
+    // Full multigrid: the residual of the current guess is restricted down to
+    // the coarsest grid, solved there, and the correction is interpolated
+    // back up with one V-cycle on every level. On its own this already
+    // brings the error down to about the discretisation error, the following
+    // V-cycles only polish it.
+    //
+    public void fmg() {
+    	warmStart();
+    	vcycle();
+    }
+
+    //
+    // Coarse-to-fine warm start: the first half of fmg. The correction of the
+    // current guess is solved on the coarser grids and interpolated onto the
+    // Solver's U, with no smoothing on the finest grid, so any of the Solver's
+    // methods can take over from there.
+    //
+    public void warmStart() {
+    	int last = levels.length - 1;
+    	if (last == 0) return;
+    	for (int ch = 0; ch < 3; ch++) {
+    		restrict(levels[0], levels[1], solver.U[ch], solver.b[ch], ch);
+    		for (int l = 1; l < last; l++)
+    			restrict(levels[l], levels[l+1], null, levels[l].f[ch], ch);
+    		Arrays.fill(levels[last].u[ch], 0.0);
+    		cycle(last, levels[last].u[ch], levels[last].f[ch], ch);
+    		for (int l = last-1; l >= 1; l--) {
+    			Arrays.fill(levels[l].u[ch], 0.0);
+    			prolong(levels[l], levels[l+1].u[ch], levels[l].u[ch]);
+    			cycle(l, levels[l].u[ch], levels[l].f[ch], ch);
+    		}
+    		prolong(levels[0], levels[1].u[ch], solver.U[ch]);
+    	}
+    }
+
+    void cycle(int l, double[] u, double[] f, int ch) {
+    	Level L = levels[l];
+    	if (l == levels.length - 1) {
+    		solveCoarsest(L, u, f);
+    		return;
+    	}
+    	smooth(L, u, f, pre);
+
+    	//Coarse grid correction
+    	Level C = levels[l+1];
+    	restrict(L, C, u, f, ch);
+    	Arrays.fill(C.u[ch], 0.0);
+    	cycle(l+1, C.u[ch], C.f[ch], ch);
+    	prolong(L, C.u[ch], u);
+
+    	smooth(L, u, f, post);
+    }
+
+    void smooth(Level L, double[] u, double[] f, int sweeps) {
+    	for (int k = 0; k < sweeps; k++) {
+    		if (L.an != null)
+    			gs(L, u, f);
+    		else if (redBlack) {
+    			solver.parallel(L.red.length, (from, to) -> Solver.gs(u, f, L.nb, L.red, from, to));
+    			solver.parallel(L.black.length, (from, to) -> Solver.gs(u, f, L.nb, L.black, from, to));
+    		}
+    		else
+    			Solver.gs(u, f, L.nb, 0, L.n);
+    	}
+    }
+
+    //The coarsest grid has at most a few dozen unknowns, so just sweep it
+    void solveCoarsest(Level L, double[] u, double[] f) {
+    	if (L.an == null) {
+    		for (int k = 0; k < 1000; k++) Solver.gs(u, f, L.nb, 0, L.n);
+    		return;
+    	}
+    	double[] r = new double[L.n+1];
+    	double r0 = residual(L, u, f, r);
+    	for (int k = 0; k < 1000; k++) {
+    		gs(L, u, f);
+    		if (residual(L, u, f, r) <= 1e-16 * r0) break;
+    	}
+    }
+
+    //Gauss-Seidel sweep on a coarse level
+    static void gs(Level L, double[] u, double[] f) {
+    	int[] an = L.an;
+    	double[] a = L.a;
+    	for (int i = 0; i < L.n; i++) {
+    		int k = 25*i;
+    		double sum = f[i];
+    		for (int s = k; s < k+25; s++) sum -= a[s] * u[an[s]];
+    		u[i] += sum / a[k+12];
+    	}
+    }
+
+    //Stores the residual f - Au in r and returns its squared norm
+    static double residual(Level L, double[] u, double[] f, double[] r) {
+    	double total = 0.0;
+    	if (L.an == null) {
+    		int[] nb = L.nb;
+    		for (int i = 0; i < L.n; i++) {
+    			int k = 4*i;
+    			r[i] = f[i] + u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] - 4*u[i];
+    			total += r[i]*r[i];
+    		}
+    	}
+    	else {
+    		int[] an = L.an;
+    		double[] a = L.a;
+    		for (int i = 0; i < L.n; i++) {
+    			int k = 25*i;
+    			double sum = f[i];
+    			for (int s = k; s < k+25; s++) sum -= a[s] * u[an[s]];
+    			r[i] = sum;
+    			total += sum*sum;
+    		}
+    	}
+    	return total;
+    }
+
+    //
+    // The coarse right hand side is P' times the residual of the fine level,
+    // every fine residual is spread over the 4 coarse unknowns it is
+    // interpolated from. With u == null the residual is f itself.
+    //
+    void restrict(Level fine, Level coarse, double[] u, double[] f, int ch) {
+    	double[] r = f;
+    	if (u != null) {
+    		if (scratch == null || scratch.length < fine.n+1) scratch = new double[fine.n+1];
+    		residual(fine, u, f, scratch);
+    		r = scratch;
+    	}
+    	double[] fc = coarse.f[ch];
+    	Arrays.fill(fc, 0.0);
+    	int[] pro = fine.pro;
+    	for (int i = 0; i < fine.n; i++) {
+    		int k = 4*i;
+    		fc[pro[k]]   += P[0] * r[i];
+    		fc[pro[k+1]] += P[1] * r[i];
+    		fc[pro[k+2]] += P[2] * r[i];
+    		fc[pro[k+3]] += P[3] * r[i];
+    	}
+    	fc[coarse.n] = 0.0;
+    }
+
+    //Bilinear interpolation of the coarse correction e, added to u
+    static void prolong(Level fine, double[] e, double[] u) {
+    	int[] pro = fine.pro;
+    	for (int i = 0; i < fine.n; i++) {
+    		int k = 4*i;
+    		u[i] += P[0] * e[pro[k]] + P[1] * e[pro[k+1]] + P[2] * e[pro[k+2]] + P[3] * e[pro[k+3]];
+    	}
+    }
+}
@@ -0,0 +1,98 @@
+
+//
+// Author: Azali Saudi
+// Date Created : 18 Oct 2026
+// Last Modified: 18 Oct 2026
+// Task: A selected region and its file format (Save Region / Load Region)
+//
+
+import java.io.*;
+import java.util.*;
+
+public class Region {
+	//Canvas coordinates of the border and of the enclosed pixels
+	public Coords border = new Coords();
+	public Coords area = new Coords();
+	//Bounding box of the border
+	public int xMin, yMin, xMax, yMax;
+
+    //
+    // The file holds the number of border pixels and their x y, the number
+    // of area pixels and their x y, then xMin yMin xMax yMax.
+    //
+    public static Region load(File file) throws IOException {
+    	Region region = new Region();
+		Scanner sc = new Scanner(file);
+		try {
+			int size = sc.nextInt();
+			for (int i = 0; i < size; i++) {
+				int x = sc.nextInt();
+				int y = sc.nextInt();
+				region.border.add(x, y);
+			}
+			size = sc.nextInt();
+			for (int i = 0; i < size; i++) {
+				int x = sc.nextInt();
+				int y = sc.nextInt();
+				region.area.add(x, y);
+			}
+			region.xMin = sc.nextInt();
+			region.yMin = sc.nextInt();
+			region.xMax = sc.nextInt();
+			region.yMax = sc.nextInt();
+		}
+		catch (NoSuchElementException e) {
+			throw new IOException("Bad region file " + file, e);
+		}
+		finally {
+			sc.close();
+		}
+		return region;
+    }
+
+    public void save(File file) throws IOException {
+		BufferedWriter fw = new BufferedWriter(new FileWriter(file));
+		fw.write(Integer.toString(border.size()));
+		fw.newLine();
+		for (int i = 0; i < border.size(); i++) {
+			fw.write(String.format("%d %d", border.x(i), border.y(i)));
+		    fw.newLine();
+		}
+		fw.write(Integer.toString(area.size()));
+		fw.newLine();
+		for (int i = 0; i < area.size(); i++) {
+			fw.write(String.format("%d %d", area.x(i), area.y(i)));
+		    fw.newLine();
+		}
+		fw.write(String.format("%d %d %d %d", xMin, yMin, xMax, yMax));
+		fw.newLine();
+		fw.flush();
+		fw.close();
+    }
+
+    //
+    // The mask of the region moved by (dx, dy) on a Width x Height canvas,
+    // as built by Blender.updateMask: -2 outside, -1 on the border and the
+    // index of the area pixel inside.
+    //
+    public int[][] mask(int Width, int Height, int dx, int dy) {
+    	int[][] mask = new int[Width][Height];
+		for (int x = 0; x < Width; x++)
+			Arrays.fill(mask[x], -2);
+		for (int i = 0; i < border.size(); i++) {
+			int x = border.x(i) + dx;
+			int y = border.y(i) + dy;
+			if (x < 0 || x >= Width || y < 0 || y >= Height)
+				continue;
+			mask[x][y] = -1;
+		}
+		for (int i = 0; i < area.size(); i++) {
+			int x = area.x(i) + dx;
+			int y = area.y(i) + dy;
+			if (x < 0 || x >= Width || y < 0 || y >= Height)
+				continue;
+			mask[x][y] = i;
+		}
+		return mask;
+    }
+}
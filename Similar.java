@@ -8,14 +8,19 @@ public class Similar {
 		File f1 = new File(args[0]);
 		File f2 = new File(args[1]);
 		
-		double psnr = Tools.printPSNR(f1, f2);
-		
-		double ssim = Tools.printSSIM(f1, f2);
+		// Each image is decoded once, the metrics come from one pass
+		Tools.Metrics m = Tools.compare(f1, f2, true);
+		if (m == null) return;
+
+		System.err.println("MSE = " + m.mse);
+		System.err.println("PSNR = " + m.psnr);
+
+		System.out.println("SSIM = " + m.ssim);
 
-		double stc = Tools.printSC(f1, f2);
-		double nae = Tools.printNAE(f1, f2);
-		double avd = Tools.printAVD(f1, f2);
-		double mxd = Tools.printMD(f1, f2);
-		double ncc = Tools.printNCC(f1, f2);
+		System.err.println("SC = " + m.sc);
+		System.err.println("NAE = " + m.nae);
+		System.err.println("AVD = " + m.avd);
+		System.err.println("MD = " + m.md);
+		System.out.println("NCC = " + m.ncc);
 	}
 }
@@ -1,3 +1,4 @@
+
 //
 // Author: Azali Saudi
 // Date Created : 18 Dec 2016
@@ -5,614 +6,1244 @@
 // Task: The Solver implementation i.e. Jacobi, GS, RGS, SOR, AOR, etc.
 //
 
-import java.util.ArrayList;
 import java.awt.image.*;
 import javax.imageio.*;
 import java.io.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Solver {
 	//Variables passed along from the visual interface
 	//used to display the image as it's iteratively updated
-	public ArrayList<Coord> selectionArea;
 	public int xMin, yMin;
 
-	//Matrix variables
+	//The unknowns are renumbered in row order (y first, then x), which is
+	//the order the sweeps visit them in. px/py hold the canvas position.
 	int N;
+	int[] px, py;
+
+	//The compiled operator. nb holds the 4 neighbours of unknown i of the
+	//5-point stencil at nb[4*i..4*i+3] (left, right, bottom, up) and nbX
+	//the 4 neighbours of the rotated stencil (x-1,y-1), (x+1,y-1), (x-1,y+1),
+	//(x+1,y+1). A Dirichlet neighbour points at the ghost index N whose
+	//value is always 0, so the kernels need no branches.
+	int[] nb;
+	int[] nbX;
+	//Unknowns visited by doRGS (even x+y) and by fillRGS (odd x+y)
+	int[] even;
+	int[] odd;
+	//Checkerboard colouring of all the unknowns for the red-black methods
+	int[] red;
+	int[] black;
+	//The unknowns of the r-th row of their bounding box are rowStart[r]..rowStart[r+1]-1
+	int[] rowStart;
+	//Runs of unknowns in their order: run k is the pixels spans[4k+1]..spans[4k+2]
+	//of row spans[4k], the unknowns from spans[4k+3] on
+	int[] spans;
+	//Size of the selection, the unknowns lie within it
+	int width, height;
+
+	//Fused sweeps, see triggers(). When measure is set the natural order
+	//sweeps (Jacobi, GS, SOR, AOR, TOR and RGS) also sum the squared
+	//residual of the new iterate of every channel into errors.
+	public boolean measure;
+	double[] errors = new double[3];
+	int[][] trig;
+	int[][] trigX;
+
+	//Active set sweeps, bit i of active[ch] is set if unknown i is swept
+	//next. next[ch] collects the set of the following sweep.
+	long[][] active;
+	long[][] next;
+
+	//2x2 blocks of the Explicit Group methods, see Groups (built on first
+	//use by groups() and groupsX())
+	Groups groups;
+	Groups groupsX;
+
+	//Worker threads for the red-black methods
+	int threads = 1;
+	ForkJoinPool pool;
+
+	//Matrix variables
+	//Each of them is stored channel first i.e. U[channel][i], so that every
+	//channel is one flat primitive array of N+1 values (the last is the ghost)
 	double[][] U;//Guess
-	double[][] V;//Guess
+	double[][] V;//Guess (scratch for Jacobi, AOR and TOR)
 	double[][] b;//Target of Ax = b
 	double[][] c;//Target of Ax = c (Rotated Grid)
 
-    public Solver(int[][] mask, ArrayList<Coord> selectionArea,
-    					BufferedImage image, BufferedImage selectedImage,
+    public Solver(int[][] mask, BufferedImage image, BufferedImage selectedImage,
     					int xMin, int yMin, int Width, int Height, boolean flatten) {
-		this.selectionArea = selectionArea;
     	this.xMin = xMin;
     	this.yMin = yMin;
 
-    	N = selectionArea.size();
-    	U = new double[N][3]; // For the 3 color channels
-    	V = new double[N][3];
-    	b = new double[N][3];
+		//
+		// Number the unknowns in the order they are swept. They lie within
+		// the rectangle of the selection, only that part of mask is scanned.
+		//
+		width = selectedImage.getWidth();
+		height = selectedImage.getHeight();
+		int sx0 = Math.max(1, xMin), sx1 = Math.min(Width-2, xMin + width - 1);
+		int sy0 = Math.max(1, yMin), sy1 = Math.min(Height-2, yMin + height - 1);
+		int bx0 = Width, by0 = Height, bx1 = 0, by1 = 0;
+		N = 0;
+		for(int x = sx0; x <= sx1; x++) {
+		  for(int y = sy0; y <= sy1; y++) {
+			if (mask[x][y] < 0) continue;
+			N++;
+			if (x < bx0) bx0 = x;
+			if (x > bx1) bx1 = x;
+			if (y < by0) by0 = y;
+			if (y > by1) by1 = y;
+		  }
+		}
+		px = new int[N];
+		py = new int[N];
+		//Index of every pixel of the bounding box, -1 if it's not an unknown
+		int bw = bx1 - bx0 + 1;
+		int[] id = new int[N > 0 ? bw * (by1 - by0 + 1) : 0];
+		java.util.Arrays.fill(id, -1);
+		int n = 0, m = 0;
+		spans = new int[64];
+		for(int y = by0; y <= by1; y++) {
+		  for(int x = bx0; x <= bx1; x++) {
+			if (mask[x][y] < 0) continue;
+			if (x == bx0 || mask[x-1][y] < 0) {
+				//A new run of unknowns
+				if (m == spans.length) spans = java.util.Arrays.copyOf(spans, 2*m);
+				spans[m] = y;
+				spans[m+1] = x;
+				spans[m+3] = n;
+				m += 4;
+			}
+			spans[m-2] = x;
+			px[n] = x;
+			py[n] = y;
+			id[(y-by0)*bw + (x-bx0)] = n++;
+		  }
+		}
+		spans = java.util.Arrays.copyOf(spans, m);
+
+    	U = new double[3][N+1]; // For the 3 color channels
+    	V = new double[3][N+1];
+    	b = new double[3][N+1];
+    	c = new double[3][N+1];
+    	nb = new int[4*N];
+    	nbX = new int[4*N];
+    	lists(Width, Height);
+    	rowStart = new int[N > 0 ? by1 - by0 + 2 : 1];
+    	for (int i = 0; i < N; i++) rowStart[py[i] - by0 + 1]++;
+    	for (int k = 1; k < rowStart.length; k++) rowStart[k] += rowStart[k-1];
 
 		//
     	// Initialize the matrix U and V and make the initial guess the value
-    	// of the pixels in "selectedImage"
+    	// of the pixels in "selectedImage". The pixels are read from the
+    	// images' arrays, every unknown is independent so the unknowns are
+    	// split over the common pool.
     	//
+    	int[] imagePixels = pixels(image);
+    	int[] selectedPixels = pixels(selectedImage);
+    	int imageWidth = image.getWidth(), selectedWidth = selectedImage.getWidth();
+    	int x0 = bx0, y0 = by0, x1 = bx1, y1 = by1;
+    	Band build = (from, to) -> build(from, to, mask, id, x0, y0, x1, y1,
+    	                                 imagePixels, imageWidth, selectedPixels, selectedWidth);
+    	if (N < 2*Bands.GRAIN) build.run(0, N);
+    	else ForkJoinPool.commonPool().invoke(new Bands(build, 0, N, Bands.GRAIN));
+    }
+
+    //Builds even, odd, red and black from the positions of the unknowns
+    void lists(int Width, int Height) {
+		int nEven = 0, nOdd = 0, nRed = 0;
+    	for (int i = 0; i < N; i++) {
+    		int x = px[i];
+    		int y = py[i];
+			if ((x+y) % 2 == 0) nRed++;
+			if ((x+y) % 2 == 0 && y < Height-1 && x < Width-2) nEven++;
+			if ((x+y) % 2 == 1 && y < Height-2 && x < Width-2) nOdd++;
+    	}
+    	even = new int[nEven];
+    	odd = new int[nOdd];
+    	red = new int[nRed];
+    	black = new int[N - nRed];
+    	nEven = 0; nOdd = 0; nRed = 0;
+    	for (int i = 0; i < N; i++) {
+    		int x = px[i];
+    		int y = py[i];
+			if ((x+y) % 2 == 0) red[nRed++] = i;
+			else black[i - nRed] = i;
+			if ((x+y) % 2 == 0 && y < Height-1 && x < Width-2) even[nEven++] = i;
+			if ((x+y) % 2 == 1 && y < Height-2 && x < Width-2) odd[nOdd++] = i;
+    	}
+    	trigX = null;
+    	groups = null;
+    	groupsX = null;
+    }
+
+    //
+    // Moves the region by (dx, dy) on the same canvas image, mask being the
+    // mask at the new place. The shape and so the operator stay the same,
+    // only the part of b and c that comes from the canvas pixels around the
+    // region changes: those are swapped for the pixels at the new place.
+    // The guess U is kept, so the next solve starts from the solution at
+    // the old place. Returns false, changing nothing, if the region doesn't
+    // fit on the canvas in one piece at the new place (a new Solver is
+    // needed then).
+    //
+    public boolean relocate(int[][] mask, BufferedImage image, int dx, int dy) {
+    	int Width = mask.length, Height = mask[0].length;
+    	int count = 0;
+    	for (int x = Math.max(1, xMin + dx); x <= Math.min(Width-2, xMin + dx + width - 1); x++) {
+    		for (int y = Math.max(1, yMin + dy); y <= Math.min(Height-2, yMin + dy + height - 1); y++)
+    			if (mask[x][y] >= 0) count++;
+    	}
+    	if (count != N) return false;
+    	for (int i = 0; i < N; i++) {
+    		int x = px[i] + dx, y = py[i] + dy;
+    		if (x < 1 || x >= Width-1 || y < 1 || y >= Height-1 || mask[x][y] < 0) return false;
+    	}
+
+    	int[] pixels = pixels(image);
+    	int imageWidth = image.getWidth();
     	int[][] dP = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
-		for(int y = 1; y < Height-1; y++) {
-		  for(int x = 1; x < Width-1; x++) {
-			if (mask[x][y] < 0) continue;
+    	int[][] cP = {{-1, -1}, {1, -1}, {-1, 1}, {1, 1}};
+    	for (int i = 0; i < N; i++) {
+    		px[i] += dx;
+    		py[i] += dy;
+    		int x = px[i], y = py[i];
+    		for (int k = 0; k < 4; k++) {
+    			int x2 = x + dP[k][0], y2 = y + dP[k][1];
+    			if (mask[x2][y2] == -1)
+    				move(b, i, pixels[(y2 - dy)*imageWidth + x2 - dx], pixels[y2*imageWidth + x2]);
+    			x2 = x + cP[k][0];
+    			y2 = y + cP[k][1];
+    			if (mask[x2][y2] < 0)
+    				move(c, i, pixels[(y2 - dy)*imageWidth + x2 - dx], pixels[y2*imageWidth + x2]);
+    		}
+    	}
+    	for (int k = 0; k < spans.length; k += 4) {
+    		spans[k] += dy;
+    		spans[k+1] += dx;
+    		spans[k+2] += dx;
+    	}
+    	xMin += dx;
+    	yMin += dy;
+    	//An odd move swaps the colours of the checkerboard
+    	lists(Width, Height);
+    	return true;
+    }
+
+    //Swaps the pixel from for the pixel to in the right hand side f of unknown i
+    static void move(double[][] f, int i, int from, int to) {
+    	f[0][i] += ((to & 0xFF0000) >> 16) - ((from & 0xFF0000) >> 16);
+    	f[1][i] += ((to & 0xFF00) >> 8) - ((from & 0xFF00) >> 8);
+    	f[2][i] += (to & 0xFF) - (from & 0xFF);
+    }
+
+    //
+    // Guess, neighbours and right hand sides of the unknowns from..to-1.
+    // image and selected are the ARGB pixels of the canvas and of the
+    // selection, width pixels per row.
+    //
+    void build(int from, int to, int[][] mask, int[] id, int bx0, int by0, int bx1, int by1,
+    				int[] image, int imageWidth, int[] selected, int selectedWidth) {
+    	int[][] dP = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+    	int[][] cP = {{-1, -1}, {1, -1}, {-1, 1}, {1, 1}};
+    	for (int i = from; i < to; i++) {
+    		int x = px[i];
+    		int y = py[i];
 
-            int i = mask[x][y];
     		int selX = x - xMin;
     		int selY = y - yMin;
-    		int RGB = selectedImage.getRGB(selX, selY);
+    		int RGB = selected[selY*selectedWidth + selX];
     		int pValueR = (RGB & 0xFF0000) >> 16;
     		int pValueG = (RGB & 0xFF00) >> 8;
     		int pValueB = RGB & 0xFF;
 
-    		U[i][0] = V[i][0] = pValueR;
-    		U[i][1] = V[i][1] = pValueG;
-    		U[i][2] = V[i][2] = pValueB;
+    		U[0][i] = V[0][i] = pValueR;
+    		U[1][i] = V[1][i] = pValueG;
+    		U[2][i] = V[2][i] = pValueB;
 
     		//
-    		// Compute the solution for the b[N][3] array
+    		// Compute the solution for the b[3][N] array
     		//
-    		b[i][0] = 0.0; b[i][1] = 0.0; b[i][2] = 0.0;
     		for (int k = 0; k < dP.length; k++) {
     			int x2 = x + dP[k][0];
     			int y2 = y + dP[k][1];
+    			nb[4*i+k] = neighbour(id, bx0, by0, bx1, by1, x2, y2);
 
     			if (mask[x2][y2] == -1) { //It's a border pixel
-    				RGB = image.getRGB(x2, y2);
-    				b[i][0] += (RGB & 0xFF0000) >> 16;
-    				b[i][1] += (RGB & 0xFF00) >> 8;
-    				b[i][2] += RGB & 0xFF;
+    				RGB = image[y2*imageWidth + x2];
+    				b[0][i] += (RGB & 0xFF0000) >> 16;
+    				b[1][i] += (RGB & 0xFF00) >> 8;
+    				b[2][i] += RGB & 0xFF;
     			}
     			else if (mask[x2][y2] == -2) {
 					// Do nothing
 				}
     			else {
-    				selX = x2 - xMin;
-    				selY = y2 - yMin;
-    				RGB = selectedImage.getRGB(selX, selY);
+    				RGB = selected[(y2 - yMin)*selectedWidth + x2 - xMin];
 		    		int qValueR = (RGB & 0xFF0000) >> 16;
 		    		int qValueG = (RGB & 0xFF00) >> 8;
 		    		int qValueB = RGB & 0xFF;
     				//vPQ = P - Q
-    				b[i][0] += (pValueR - qValueR);
-    				b[i][1] += (pValueG - qValueG);
-    				b[i][2] += (pValueB - qValueB);
+    				b[0][i] += (pValueR - qValueR);
+    				b[1][i] += (pValueG - qValueG);
+    				b[2][i] += (pValueB - qValueB);
     			}
     		}
-		  }
-    	}
 
-    	//
-    	// The c[N][3] array stores the gradient for rotated grid.
-    	//
-    	c = new double[N][3];
-    	int[][] cP = {{-1, -1}, {1, -1}, {-1, 1}, {1, 1}};
-    	for (int i = 0; i < N; i++) {
-    		int x = selectionArea.get(i).x;
-    		int y = selectionArea.get(i).y;
-    		int selX = x - xMin;
-    		int selY = y - yMin;
-    		int RGB = selectedImage.getRGB(selX, selY);
-    		int pValueR = (RGB & 0xFF0000) >> 16;
-    		int pValueG = (RGB & 0xFF00) >> 8;
-    		int pValueB = RGB & 0xFF;
-    		c[i][0] = 0.0; c[i][1] = 0.0; c[i][2] = 0.0;
-    		for (int k = 0; k < dP.length; k++) {
+	    	//
+	    	// The c[3][N] array stores the gradient for rotated grid.
+	    	//
+    		for (int k = 0; k < cP.length; k++) {
     			int x2 = x + cP[k][0];
     			int y2 = y + cP[k][1];
+    			nbX[4*i+k] = neighbour(id, bx0, by0, bx1, by1, x2, y2);
 
     			if (mask[x2][y2] == -1) { // It's a border or outside pixel
-    				RGB = image.getRGB(x2, y2);
-    				c[i][0] += (RGB & 0xFF0000) >> 16;
-    				c[i][1] += (RGB & 0xFF00) >> 8;
-    				c[i][2] += RGB & 0xFF;
+    				RGB = image[y2*imageWidth + x2];
+    				c[0][i] += (RGB & 0xFF0000) >> 16;
+    				c[1][i] += (RGB & 0xFF00) >> 8;
+    				c[2][i] += RGB & 0xFF;
     			}
     			else if (mask[x2][y2] == -2) { // It's an outside pixel
     			    // We use that outside pixel
-    				RGB = image.getRGB(x2, y2);
-    				c[i][0] += (RGB & 0xFF0000) >> 16;
-    				c[i][1] += (RGB & 0xFF00) >> 8;
-    				c[i][2] += RGB & 0xFF;
+    				RGB = image[y2*imageWidth + x2];
+    				c[0][i] += (RGB & 0xFF0000) >> 16;
+    				c[1][i] += (RGB & 0xFF00) >> 8;
+    				c[2][i] += RGB & 0xFF;
 				}
     			else {
-    				selX = x2 - xMin;
-    				selY = y2 - yMin;
-    				RGB = selectedImage.getRGB(selX, selY);
+    				RGB = selected[(y2 - yMin)*selectedWidth + x2 - xMin];
 		    		int qValueR = (RGB & 0xFF0000) >> 16;
 		    		int qValueG = (RGB & 0xFF00) >> 8;
 		    		int qValueB = RGB & 0xFF;
     				//vPQ = P - Q
-    				c[i][0] += (pValueR - qValueR);
-    				c[i][1] += (pValueG - qValueG);
-    				c[i][2] += (pValueB - qValueB);
+    				c[0][i] += (pValueR - qValueR);
+    				c[1][i] += (pValueG - qValueG);
+    				c[2][i] += (pValueB - qValueB);
     			}
     		}
     	}
     }
 
-    public void doJacobi(int[][] mask, int W, int H) {
-    	double[] xL = new double[3];
-    	double[] xR = new double[3];
-    	double[] xB = new double[3];
-    	double[] xU = new double[3];
+    //
+    // The ARGB pixels of img, width pixels per row. For the int images the
+    // GUI draws on (TYPE_INT_RGB/ARGB) this is the image's own array, so
+    // writing into it changes the image; for any other image it's a copy.
+    //
+    static int[] pixels(BufferedImage img) {
+    	if (direct(img))
+    		return ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+    	int w = img.getWidth(), h = img.getHeight();
+    	return img.getRGB(0, 0, w, h, null, 0, w);
+    }
 
-		for(int y = 0; y < H; y++) {
-		  for(int x = 0; x < W; x++) {
-			if (mask[x][y] < 0) continue;
+    static boolean direct(BufferedImage img) {
+    	int type = img.getType();
+    	if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) return false;
+    	WritableRaster raster = img.getRaster();
+    	return raster.getParent() == null && raster.getDataBuffer().getOffset() == 0 &&
+    	       ((SinglePixelPackedSampleModel)raster.getSampleModel()).getScanlineStride() == img.getWidth();
+    }
 
-    		if (mask[x-1][y] < 0) xL[0] = xL[1] = xL[2] = 0;
-			else {
-				xL[0] = U[mask[x-1][y]][0];
-				xL[1] = U[mask[x-1][y]][1];
-				xL[2] = U[mask[x-1][y]][2];
-		    }
-    		if (mask[x+1][y] < 0) xR[0] = xR[1] = xR[2] = 0;
-			else {
-				xR[0] = U[mask[x+1][y]][0];
-				xR[1] = U[mask[x+1][y]][1];
-				xR[2] = U[mask[x+1][y]][2];
-		    }
-    		if (mask[x][y-1] < 0) xB[0] = xB[1] = xB[2] = 0;
-			else {
-				xB[0] = U[mask[x][y-1]][0];
-				xB[1] = U[mask[x][y-1]][1];
-				xB[2] = U[mask[x][y-1]][2];
-		    }
-    		if (mask[x][y+1] < 0) xU[0] = xU[1] = xU[2] = 0;
-			else {
-				xU[0] = U[mask[x][y+1]][0];
-				xU[1] = U[mask[x][y+1]][1];
-				xU[2] = U[mask[x][y+1]][2];
-		    }
-
-			int i = mask[x][y];
-		    V[i][0] = 0.25 * (xL[0] + xR[0] + xB[0] + xU[0] + b[i][0]);
-		    V[i][1] = 0.25 * (xL[1] + xR[1] + xB[1] + xU[1] + b[i][1]);
-		    V[i][2] = 0.25 * (xL[2] + xR[2] + xB[2] + xU[2] + b[i][2]);
-    	  }
-	    }
-
-        // Assign vector U with the updated vector V
-    	for (int i = 0; i < N; i++) {
-			U[i][0] = V[i][0];
-			U[i][1] = V[i][1];
-			U[i][2] = V[i][2];
-		}
+    //Index of the unknown at (x, y) or the ghost index N
+    int neighbour(int[] id, int bx0, int by0, int bx1, int by1, int x, int y) {
+    	if (x < bx0 || x > bx1 || y < by0 || y > by1) return N;
+    	int k = id[(y-by0)*(bx1-bx0+1) + (x-bx0)];
+    	return k < 0 ? N : k;
     }
 
-    public void doGS(int[][] mask, int W, int H) {
-    	double[] xL = new double[3];
-    	double[] xR = new double[3];
-    	double[] xB = new double[3];
-    	double[] xU = new double[3];
+    //
+    // Jacobi reads only the old iterate U and writes the new one into V.
+    // Instead of copying V back into U, the two buffers are swapped.
+    //
+    public void doJacobi() {
+    	for (int ch = 0; ch < 3; ch++) doJacobi(ch);
+    }
 
-		for(int y = 0; y < H; y++) {
-		  for(int x = 0; x < W; x++) {
-			if (mask[x][y] < 0) continue;
+    //
+    // Gauss-Seidel type methods update U in place. The left and bottom
+    // neighbours have already been updated in this sweep, the right and top
+    // ones still hold the previous iterate.
+    //
+    public void doGS() {
+    	for (int ch = 0; ch < 3; ch++) doGS(ch);
+    }
 
-    		if (mask[x-1][y] < 0) xL[0] = xL[1] = xL[2] = 0;
-			else {
-				xL[0] = V[mask[x-1][y]][0];
-				xL[1] = V[mask[x-1][y]][1];
-				xL[2] = V[mask[x-1][y]][2];
-		    }
-    		if (mask[x+1][y] < 0) xR[0] = xR[1] = xR[2] = 0;
-			else {
-				xR[0] = U[mask[x+1][y]][0];
-				xR[1] = U[mask[x+1][y]][1];
-				xR[2] = U[mask[x+1][y]][2];
-		    }
-    		if (mask[x][y-1] < 0) xB[0] = xB[1] = xB[2] = 0;
-			else {
-				xB[0] = V[mask[x][y-1]][0];
-				xB[1] = V[mask[x][y-1]][1];
-				xB[2] = V[mask[x][y-1]][2];
-		    }
-    		if (mask[x][y+1] < 0) xU[0] = xU[1] = xU[2] = 0;
-			else {
-				xU[0] = U[mask[x][y+1]][0];
-				xU[1] = U[mask[x][y+1]][1];
-				xU[2] = U[mask[x][y+1]][2];
-		    }
-
-			int i = mask[x][y];
-		    V[i][0] = 0.25 * (xL[0] + xR[0] + xB[0] + xU[0] + b[i][0]);
-		    V[i][1] = 0.25 * (xL[1] + xR[1] + xB[1] + xU[1] + b[i][1]);
-		    V[i][2] = 0.25 * (xL[2] + xR[2] + xB[2] + xU[2] + b[i][2]);
-    	  }
-	    }
+    public void doSOR(double w) {
+    	for (int ch = 0; ch < 3; ch++) doSOR(ch, w);
+    }
 
-    	for (int i = 0; i < N; i++) {
-			U[i][0] = V[i][0];
-			U[i][1] = V[i][1];
-			U[i][2] = V[i][2];
-		}
+    //
+    // AOR and TOR need both the old (U) and the new (V) value of the left and
+    // bottom neighbours, so they write into V and swap the buffers afterwards.
+    //
+    public void doAOR(double w, double r) {
+    	for (int ch = 0; ch < 3; ch++) doAOR(ch, w, r);
     }
 
-    public void doSOR(int[][] mask, int W, int H, double w) {
-    	double[] xL = new double[3];
-    	double[] xR = new double[3];
-    	double[] xB = new double[3];
-    	double[] xU = new double[3];
+    public void doTOR(double w, double r, double s) {
+    	for (int ch = 0; ch < 3; ch++) doTOR(ch, w, r, s);
+    }
 
-		for(int y = 0; y < H; y++) {
-		  for(int x = 0; x < W; x++) {
-			if (mask[x][y] < 0) continue;
+    public void doRGS() {
+    	for (int ch = 0; ch < 3; ch++) doRGS(ch);
+    }
 
-    		if (mask[x-1][y] < 0) xL[0] = xL[1] = xL[2] = 0;
-			else {
-				xL[0] = V[mask[x-1][y]][0];
-				xL[1] = V[mask[x-1][y]][1];
-				xL[2] = V[mask[x-1][y]][2];
-		    }
-    		if (mask[x+1][y] < 0) xR[0] = xR[1] = xR[2] = 0;
-			else {
-				xR[0] = U[mask[x+1][y]][0];
-				xR[1] = U[mask[x+1][y]][1];
-				xR[2] = U[mask[x+1][y]][2];
-		    }
-    		if (mask[x][y-1] < 0) xB[0] = xB[1] = xB[2] = 0;
-			else {
-				xB[0] = V[mask[x][y-1]][0];
-				xB[1] = V[mask[x][y-1]][1];
-				xB[2] = V[mask[x][y-1]][2];
-		    }
-    		if (mask[x][y+1] < 0) xU[0] = xU[1] = xU[2] = 0;
-			else {
-				xU[0] = U[mask[x][y+1]][0];
-				xU[1] = U[mask[x][y+1]][1];
-				xU[2] = U[mask[x][y+1]][2];
-		    }
-
-			int i = mask[x][y];
-		    V[i][0] = w*0.25 * (xL[0] + xR[0] + xB[0] + xU[0] + b[i][0]) + (1-w)*U[i][0];
-		    V[i][1] = w*0.25 * (xL[1] + xR[1] + xB[1] + xU[1] + b[i][1]) + (1-w)*U[i][1];
-		    V[i][2] = w*0.25 * (xL[2] + xR[2] + xB[2] + xU[2] + b[i][2]) + (1-w)*U[i][2];
-    	  }
-	    }
+    public void fillRGS() {
+    	for (int ch = 0; ch < 3; ch++)
+    		gs(U[ch], b[ch], nb, odd, 0, odd.length);
+	}
 
-    	for (int i = 0; i < N; i++) {
-			U[i][0] = V[i][0];
-			U[i][1] = V[i][1];
-			U[i][2] = V[i][2];
-		}
+    //
+    // Temporal blocking. Several GS/SOR sweeps are made in one pass over the
+    // rows: sweep j+1 works one row behind sweep j, where the row above has
+    // its values from sweep j and the row below from sweep j+1 already, just
+    // as in separate sweeps. Only about sweeps+1 rows are touched at a time,
+    // so they stay in cache, and the result is the same as that of doSOR
+    // called sweeps times.
+    //
+    public void doWavefrontSOR(int sweeps, double w) {
+    	int rows = rowStart.length - 1;
+    	for (int t = 0; t < rows + sweeps - 1; t++) {
+    		for (int j = 0; j < sweeps; j++) {
+    			int row = t - j;
+    			if (row < 0 || row >= rows) continue;
+    			sor(U[0], U[1], U[2], b[0], b[1], b[2], nb, rowStart[row], rowStart[row+1], w);
+    		}
+    	}
     }
 
-    public void doAOR(int[][] mask, int W, int H, double w, double r) {
-    	double[] xL = new double[3];
-    	double[] xR = new double[3];
-    	double[] xB = new double[3];
-    	double[] xU = new double[3];
-        double[] vL = new double[3];
-        double[] vB = new double[3];
+    //
+    // Red-black (checkerboard) ordering. All the unknowns of one colour only
+    // depend on unknowns of the other colour, so each colour phase is split
+    // into row bands that are swept in parallel on the worker pool. Unlike
+    // the natural ordering above, the result doesn't depend on the number
+    // of threads.
+    //
+    public void setThreads(int threads) {
+    	if (threads < 1) threads = 1;
+    	if (threads == this.threads && (pool != null || threads == 1)) return;
+    	if (pool != null) pool.shutdown();
+    	this.threads = threads;
+    	pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
 
-		for(int y = 0; y < H; y++) {
-		  for(int x = 0; x < W; x++) {
-			if (mask[x][y] < 0) continue;
+    public void doRBGS() {
+    	for (int ch = 0; ch < 3; ch++) doRBGS(ch);
+    }
 
-    		if (mask[x-1][y] < 0) {
-                xL[0] = xL[1] = xL[2] = 0;
-                vL[0] = vL[1] = vL[2] = 0;
-            }
-			else {
-				xL[0] = U[mask[x-1][y]][0];
-				xL[1] = U[mask[x-1][y]][1];
-				xL[2] = U[mask[x-1][y]][2];
-				vL[0] = V[mask[x-1][y]][0];
-				vL[1] = V[mask[x-1][y]][1];
-				vL[2] = V[mask[x-1][y]][2];
-		    }
-    		if (mask[x+1][y] < 0) xR[0] = xR[1] = xR[2] = 0;
-			else {
-				xR[0] = U[mask[x+1][y]][0];
-				xR[1] = U[mask[x+1][y]][1];
-				xR[2] = U[mask[x+1][y]][2];
-		    }
-    		if (mask[x][y-1] < 0) {
-                xB[0] = xB[1] = xB[2] = 0;
-                vB[0] = vB[1] = vB[2] = 0;
-            }
-			else {
-				xB[0] = U[mask[x][y-1]][0];
-				xB[1] = U[mask[x][y-1]][1];
-				xB[2] = U[mask[x][y-1]][2];
-				vB[0] = V[mask[x][y-1]][0];
-				vB[1] = V[mask[x][y-1]][1];
-				vB[2] = V[mask[x][y-1]][2];
-		    }
-    		if (mask[x][y+1] < 0) xU[0] = xU[1] = xU[2] = 0;
-			else {
-				xU[0] = U[mask[x][y+1]][0];
-				xU[1] = U[mask[x][y+1]][1];
-				xU[2] = U[mask[x][y+1]][2];
-		    }
-
-			int i = mask[x][y];
-		    V[i][0] = w/4 * (xL[0] + xR[0] + xB[0] + xU[0] + b[i][0]) + (1-w)*U[i][0] +
-		              r/4 * (vL[0] - xL[0] + vB[0] - xB[0]);
-		    V[i][1] = w/4 * (xL[1] + xR[1] + xB[1] + xU[1] + b[i][1]) + (1-w)*U[i][1] +
-		              r/4 * (vL[1] - xL[1] + vB[1] - xB[1]);
-		    V[i][2] = w/4 * (xL[2] + xR[2] + xB[2] + xU[2] + b[i][2]) + (1-w)*U[i][2] +
-		              r/4 * (vL[2] - xL[2] + vB[2] - xB[2]);
-    	  }
-	    }
+    public void doRBSOR(double w) {
+    	for (int ch = 0; ch < 3; ch++) doRBSOR(ch, w);
+    }
 
-    	for (int i = 0; i < N; i++) {
-			U[i][0] = V[i][0];
-			U[i][1] = V[i][1];
-			U[i][2] = V[i][2];
-		}
+    public void doRBAOR(double w, double r) {
+    	doRBTOR(w, r, r);
     }
 
-    public void doTOR(int[][] mask, int W, int H, double w, double r, double s) {
-    	double[] xL = new double[3];
-    	double[] xR = new double[3];
-    	double[] xB = new double[3];
-    	double[] xU = new double[3];
-        double[] vL = new double[3];
-        double[] vB = new double[3];
+    //
+    // With red-black ordering the red unknowns see no updated neighbour, and
+    // the black ones see 4 of them. r weights the horizontal and s the
+    // vertical corrections, as in doTOR.
+    //
+    public void doRBTOR(double w, double r, double s) {
+    	for (int ch = 0; ch < 3; ch++) doRBTOR(ch, w, r, s);
+    }
 
-		for(int y = 0; y < H; y++) {
-		  for(int x = 0; x < W; x++) {
-			if (mask[x][y] < 0) continue;
+    //
+    // Active set SOR: sweeps, in the natural order, only the unknowns that
+    // are in the active set. An unknown that moves by more than threshold
+    // puts itself and its 4 neighbours into the set of the next sweep, the
+    // others drop out until a neighbour moves. Returns the number of
+    // updates. activateAll() puts every unknown back, e.g. after a full
+    // sweep.
+    //
+    public long doActiveSOR(double w, double threshold) {
+    	long updates = 0;
+    	for (int ch = 0; ch < 3; ch++) updates += doActiveSOR(ch, w, threshold);
+    	return updates;
+    }
 
-    		if (mask[x-1][y] < 0) {
-                xL[0] = xL[1] = xL[2] = 0;
-                vL[0] = vL[1] = vL[2] = 0;
-            }
-			else {
-				xL[0] = U[mask[x-1][y]][0];
-				xL[1] = U[mask[x-1][y]][1];
-				xL[2] = U[mask[x-1][y]][2];
-				vL[0] = V[mask[x-1][y]][0];
-				vL[1] = V[mask[x-1][y]][1];
-				vL[2] = V[mask[x-1][y]][2];
-		    }
-    		if (mask[x+1][y] < 0) xR[0] = xR[1] = xR[2] = 0;
-			else {
-				xR[0] = U[mask[x+1][y]][0];
-				xR[1] = U[mask[x+1][y]][1];
-				xR[2] = U[mask[x+1][y]][2];
-		    }
-    		if (mask[x][y-1] < 0) {
-                xB[0] = xB[1] = xB[2] = 0;
-                vB[0] = vB[1] = vB[2] = 0;
-            }
-			else {
-				xB[0] = U[mask[x][y-1]][0];
-				xB[1] = U[mask[x][y-1]][1];
-				xB[2] = U[mask[x][y-1]][2];
-				vB[0] = V[mask[x][y-1]][0];
-				vB[1] = V[mask[x][y-1]][1];
-				vB[2] = V[mask[x][y-1]][2];
-		    }
-    		if (mask[x][y+1] < 0) xU[0] = xU[1] = xU[2] = 0;
-			else {
-				xU[0] = U[mask[x][y+1]][0];
-				xU[1] = U[mask[x][y+1]][1];
-				xU[2] = U[mask[x][y+1]][2];
-		    }
-
-			int i = mask[x][y];
-		    V[i][0] = w/4 * (xL[0] + xR[0] + xB[0] + xU[0] + b[i][0]) + (1-w)*U[i][0] +
-		              r/4 * (vL[0] - xL[0])+
-		              s/4 * (vB[0] - xB[0]);
-		    V[i][1] = w/4 * (xL[1] + xR[1] + xB[1] + xU[1] + b[i][1]) + (1-w)*U[i][1] +
-		              r/4 * (vL[1] - xL[1])+
-		              s/4 * (vB[1] - xB[1]);
-		    V[i][2] = w/4 * (xL[2] + xR[2] + xB[2] + xU[2] + b[i][2]) + (1-w)*U[i][2] +
-		              r/4 * (vL[2] - xL[2])+
-		              s/4 * (vB[2] - xB[2]);
-    	  }
-	    }
+    public void activateAll() {
+    	if (active == null) {
+    		active = new long[3][(N >> 6) + 1];
+    		next = new long[3][(N >> 6) + 1];
+    	}
+    	for (int ch = 0; ch < 3; ch++) {
+    		java.util.Arrays.fill(active[ch], -1L);
+    		//Nothing from the ghost N on
+    		active[ch][N >> 6] = (1L << N) - 1;
+    	}
+    }
 
-    	for (int i = 0; i < N; i++) {
-			U[i][0] = V[i][0];
-			U[i][1] = V[i][1];
-			U[i][2] = V[i][2];
-		}
+    //
+    // Explicit Group methods. The unknowns are gathered in 2x2 blocks and
+    // every block is solved exactly for its 4 unknowns at once, with the
+    // explicit inverse of its 4x4 matrix. The blocks are swept in red-black
+    // block order, a block only couples with the 4 blocks beside it, which
+    // have the other colour, so each colour runs on the worker pool like
+    // doRBSOR. EGSOR over-relaxes the block solution by w.
+    //
+    public void doEG() {
+    	for (int ch = 0; ch < 3; ch++) doEGSOR(ch, 1.0);
     }
 
-    public void doRGS(int[][] mask, int W, int H) {
-    	double[] xL = new double[3];
-    	double[] xR = new double[3];
-    	double[] xB = new double[3];
-    	double[] xU = new double[3];
+    public void doEGSOR(double w) {
+    	for (int ch = 0; ch < 3; ch++) doEGSOR(ch, w);
+    }
 
-		for(int y = 1; y < H-1; y++) {
-		  for(int x = 1; x < W-2; x++) {
-			if ((x+y) % 2 == 1) continue;
-			if (mask[x][y] < 0) continue;
+    //
+    // Modified EG: the same blocks on the skewed grid of doRGS, i.e. of 4
+    // even unknowns that are diagonal neighbours. Like doRGS it solves Ax = c
+    // for the even unknowns only, fillRGS computes the odd ones afterwards.
+    //
+    public void doMEG() {
+    	for (int ch = 0; ch < 3; ch++) doMEGSOR(ch, 1.0);
+    }
 
-    		if (mask[x-1][y-1] < 0) xL[0] = xL[1] = xL[2] = 0;
-			else {
-				xL[0] = V[mask[x-1][y-1]][0];
-				xL[1] = V[mask[x-1][y-1]][1];
-				xL[2] = V[mask[x-1][y-1]][2];
-		    }
-    		if (mask[x+1][y-1] < 0) xR[0] = xR[1] = xR[2] = 0;
-			else {
-				xR[0] = V[mask[x+1][y-1]][0];
-				xR[1] = V[mask[x+1][y-1]][1];
-				xR[2] = V[mask[x+1][y-1]][2];
-		    }
-    		if (mask[x-1][y+1] < 0) xB[0] = xB[1] = xB[2] = 0;
-			else {
-				xB[0] = U[mask[x-1][y+1]][0];
-				xB[1] = U[mask[x-1][y+1]][1];
-				xB[2] = U[mask[x-1][y+1]][2];
-		    }
-    		if (mask[x+1][y+1] < 0) xU[0] = xU[1] = xU[2] = 0;
-			else {
-				xU[0] = U[mask[x+1][y+1]][0];
-				xU[1] = U[mask[x+1][y+1]][1];
-				xU[2] = U[mask[x+1][y+1]][2];
-		    }
-
-			int i = mask[x][y];
-		    V[i][0] = 0.25 * (xL[0] + xR[0] + xB[0] + xU[0] + c[i][0]);
-		    V[i][1] = 0.25 * (xL[1] + xR[1] + xB[1] + xU[1] + c[i][1]);
-		    V[i][2] = 0.25 * (xL[2] + xR[2] + xB[2] + xU[2] + c[i][2]);
-    	  }
-	    }
+    public void doMEGSOR(double w) {
+    	for (int ch = 0; ch < 3; ch++) doMEGSOR(ch, w);
+    }
 
-    	for (int i = 0; i < N; i++) {
-			U[i][0] = V[i][0];
-			U[i][1] = V[i][1];
-			U[i][2] = V[i][2];
-		}
+    //
+    // The same sweeps on a single channel. The three channels are independent
+    // systems, so these may run concurrently for different channels (see
+    // startChannels). Buffers are swapped per channel.
+    //
+    public void doJacobi(int ch) {
+    	if (measure) errors[ch] = jacobi(U[ch], V[ch], b[ch], nb, trig()[0], trig()[1]);
+    	else jacobi(U[ch], V[ch], b[ch], nb, 0, N);
+    	swap(ch);
     }
 
-    public void fillRGS(int[][] mask, int W, int H) {
-    	double[] xL = new double[3];
-    	double[] xR = new double[3];
-    	double[] xB = new double[3];
-    	double[] xU = new double[3];
+    public void doGS(int ch) {
+    	if (measure) errors[ch] = gs(U[ch], b[ch], nb, trig()[0], trig()[1]);
+    	else gs(U[ch], b[ch], nb, 0, N);
+    }
 
-		for(int y = 1; y < H-2; y++) {
-		  for(int x = 1; x < W-2; x++) {
-			if ((x+y) % 2 == 0) continue;
-			if (mask[x][y] < 0) continue;
+    public void doSOR(int ch, double w) {
+    	if (measure) errors[ch] = sor(U[ch], b[ch], nb, trig()[0], trig()[1], w);
+    	else sor(U[ch], b[ch], nb, 0, N, w);
+    }
 
-    		if (mask[x-1][y] < 0) xL[0] = xL[1] = xL[2] = 0;
-			else {
-				xL[0] = U[mask[x-1][y]][0];
-				xL[1] = U[mask[x-1][y]][1];
-				xL[2] = U[mask[x-1][y]][2];
-		    }
-    		if (mask[x+1][y] < 0) xR[0] = xR[1] = xR[2] = 0;
-			else {
-				xR[0] = U[mask[x+1][y]][0];
-				xR[1] = U[mask[x+1][y]][1];
-				xR[2] = U[mask[x+1][y]][2];
-		    }
-    		if (mask[x][y-1] < 0) xB[0] = xB[1] = xB[2] = 0;
-			else {
-				xB[0] = U[mask[x][y-1]][0];
-				xB[1] = U[mask[x][y-1]][1];
-				xB[2] = U[mask[x][y-1]][2];
-		    }
-    		if (mask[x][y+1] < 0) xU[0] = xU[1] = xU[2] = 0;
-			else {
-				xU[0] = U[mask[x][y+1]][0];
-				xU[1] = U[mask[x][y+1]][1];
-				xU[2] = U[mask[x][y+1]][2];
-		    }
-
-			int i = mask[x][y];
-		    U[i][0] = V[i][0] = 0.25 * (xL[0] + xR[0] + xB[0] + xU[0] + b[i][0]);
-		    U[i][1] = V[i][1] = 0.25 * (xL[1] + xR[1] + xB[1] + xU[1] + b[i][1]);
-		    U[i][2] = V[i][2] = 0.25 * (xL[2] + xR[2] + xB[2] + xU[2] + b[i][2]);
-    	  }
-	    }
+    public void doAOR(int ch, double w, double r) {
+    	if (measure) errors[ch] = aor(U[ch], V[ch], b[ch], nb, trig()[0], trig()[1], w, r);
+    	else aor(U[ch], V[ch], b[ch], nb, 0, N, w, r);
+    	swap(ch);
+    }
 
-    	for (int i = 0; i < N; i++) {
-			U[i][0] = V[i][0];
-			U[i][1] = V[i][1];
-			U[i][2] = V[i][2];
-		}
+    public void doTOR(int ch, double w, double r, double s) {
+    	if (measure) errors[ch] = tor(U[ch], V[ch], b[ch], nb, trig()[0], trig()[1], w, r, s);
+    	else tor(U[ch], V[ch], b[ch], nb, 0, N, w, r, s);
+    	swap(ch);
+    }
 
-	}
+    public void doRGS(int ch) {
+    	if (measure) errors[ch] = gs(U[ch], c[ch], nbX, even, trigX()[0], trigX()[1]);
+    	else gs(U[ch], c[ch], nbX, even, 0, even.length);
+    }
 
-    public double getError(int[][] mask, int W, int H) {
-    	double total = 0.0;
-		for(int y = 0; y < H; y++) {
-		  for(int x = 0; x < W; x++) {
-			if (mask[x][y] < 0) continue;
+    public void doRBGS(int ch) {
+    	double[] u = U[ch], f = b[ch];
+    	parallel(red.length, (from, to) -> gs(u, f, nb, red, from, to));
+    	parallel(black.length, (from, to) -> gs(u, f, nb, black, from, to));
+    }
 
-			int i = mask[x][y];
-    		double[] error = {b[i][0], b[i][1], b[i][2]};
+    public void doRBSOR(int ch, double w) {
+    	double[] u = U[ch], f = b[ch];
+    	parallel(red.length, (from, to) -> sor(u, f, nb, red, from, to, w));
+    	parallel(black.length, (from, to) -> sor(u, f, nb, black, from, to, w));
+    }
 
-    		if (mask[x-1][y] >= 0) {
- 				error[0] += U[mask[x-1][y]][0];
-   				error[1] += U[mask[x-1][y]][1];
-   				error[2] += U[mask[x-1][y]][2];
-			}
-    		if (mask[x+1][y] >= 0) {
- 				error[0] += U[mask[x+1][y]][0];
-   				error[1] += U[mask[x+1][y]][1];
-   				error[2] += U[mask[x+1][y]][2];
-			}
-    		if (mask[x][y-1] >= 0) {
- 				error[0] += U[mask[x][y-1]][0];
-   				error[1] += U[mask[x][y-1]][1];
-   				error[2] += U[mask[x][y-1]][2];
-			}
-    		if (mask[x][y+1] >= 0) {
- 				error[0] += U[mask[x][y+1]][0];
-   				error[1] += U[mask[x][y+1]][1];
-   				error[2] += U[mask[x][y+1]][2];
-			}
-    		error[0] -= 4*U[i][0];
-    		error[1] -= 4*U[i][1];
-    		error[2] -= 4*U[i][2];
-    		total += (error[0]*error[0] + error[1]*error[1] + error[2]*error[2]);
-	  	  }
+    public void doRBAOR(int ch, double w, double r) {
+    	doRBTOR(ch, w, r, r);
+    }
+
+    public void doRBTOR(int ch, double w, double r, double s) {
+    	double[] u = U[ch], v = V[ch], f = b[ch];
+    	parallel(red.length, (from, to) -> jor(u, v, f, nb, red, from, to, w));
+    	parallel(black.length, (from, to) -> tor(u, v, f, nb, black, from, to, w, r, s));
+    	swap(ch);
+    }
+
+    public long doActiveSOR(int ch, double w, double threshold) {
+    	if (active == null) activateAll();
+    	long[] set = active[ch], following = next[ch];
+    	long updates = sor(U[ch], b[ch], nb, set, following, w, threshold);
+    	following[N >> 6] &= ~(1L << N);
+    	java.util.Arrays.fill(set, 0L);
+    	active[ch] = following;
+    	next[ch] = set;
+    	return updates;
+    }
+
+    public void doEGSOR(int ch, double w) {
+    	eg(U[ch], b[ch], groups(), w);
+    }
+
+    public void doMEGSOR(int ch, double w) {
+    	eg(U[ch], c[ch], groupsX(), w);
+    }
+
+    void eg(double[] u, double[] f, Groups G, double w) {
+    	int[] g = G.g;
+    	parallel(G.red, (from, to) -> eg(u, f, g, from, to, w));
+    	parallel(G.count - G.red, (from, to) -> eg(u, f, g, G.red + from, G.red + to, w));
+    }
+
+    //V of the channel becomes the current iterate
+    void swap(int ch) {
+    	double[] T = U[ch]; U[ch] = V[ch]; V[ch] = T;
+    }
+
+    interface Band {
+    	void run(int from, int to);
+    }
+
+    //Runs band over 0..n-1, split in row bands over the worker pool
+    void parallel(int n, Band band) {
+    	if (pool == null || n < 2*Bands.GRAIN) {
+    		band.run(0, n);
+    		return;
+    	}
+    	int grain = Math.max(Bands.GRAIN, n / (4*threads));
+    	pool.invoke(new Bands(band, 0, n, grain));
+    }
+
+    static class Bands extends RecursiveAction {
+    	private static final long serialVersionUID = 1L;
+    	static final int GRAIN = 2048;
+    	Band band;
+    	int from, to, grain;
+
+    	Bands(Band band, int from, int to, int grain) {
+    		this.band = band;
+    		this.from = from;
+    		this.to = to;
+    		this.grain = grain;
     	}
+
+    	protected void compute() {
+    		if (to - from <= grain) {
+    			band.run(from, to);
+    			return;
+    		}
+    		int mid = (from + to) >>> 1;
+    		invokeAll(new Bands(band, from, mid, grain), new Bands(band, mid, to, grain));
+    	}
+    }
+
+    //
+    // The 2x2 blocks of the Explicit Group methods, red blocks first. Block
+    // j is g[SIZE*j..]: its 4 unknowns, the 4 neighbours of each of them in
+    // the stencil table with the ones inside the block replaced by the ghost
+    // (those are in the block's matrix instead), then the block's type. A
+    // missing unknown (the block is cut by the border of the region) is the
+    // ghost as well, bit m of the type is set if unknown m is present.
+    //
+    static class Groups {
+    	static final int SIZE = 21;
+    	//Inverse of the matrix of each type of block, see inverses()
+    	static final double[][] INV = inverses();
+    	int[] g;
+    	int count, red;
+
+    	//
+    	// Blocks of the unknowns of list (all of them if null). The position
+    	// of an unknown in its block comes from its grid coordinates, on the
+    	// skewed grid from p = (x+y)/2 and q = (x-y)/2 instead. Unknown m of a
+    	// block couples with the unknowns m^1 and m^2 of it.
+    	//
+    	Groups(int[] nb, int[] list, boolean skewed, int[] px, int[] py, int N) {
+    		int M = list == null ? N : list.length;
+    		int[] gx = new int[M], gy = new int[M], slot = new int[M];
+    		int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = 0, y1 = 0;
+    		for (int j = 0; j < M; j++) {
+    			int i = list == null ? j : list[j];
+    			int p = skewed ? (px[i] + py[i]) >> 1 : px[i];
+    			int q = skewed ? (px[i] - py[i]) >> 1 : py[i];
+    			gx[j] = p >> 1;
+    			gy[j] = q >> 1;
+    			slot[j] = (p & 1) + 2*(q & 1);
+    			x0 = Math.min(x0, gx[j]);
+    			x1 = Math.max(x1, gx[j]);
+    			y0 = Math.min(y0, gy[j]);
+    			y1 = Math.max(y1, gy[j]);
+    		}
+
+    		//Number the blocks, the red ones first
+    		int bw = x1 - x0 + 1;
+    		int[] id = new int[M > 0 ? bw * (y1 - y0 + 1) : 0];
+    		java.util.Arrays.fill(id, -1);
+    		for (int j = 0; j < M; j++) id[(gy[j] - y0)*bw + gx[j] - x0] = 0;
+    		for (int colour = 0; colour < 2; colour++) {
+    			for (int k = 0; k < id.length; k++) {
+    				if (id[k] < 0 || (k / bw + y0 + k % bw + x0 & 1) != colour) continue;
+    				id[k] = count++;
+    			}
+    			if (colour == 0) red = count;
+    		}
+
+    		g = new int[SIZE*count];
+    		java.util.Arrays.fill(g, N);
+    		int[] block = new int[N+1];
+    		java.util.Arrays.fill(block, -1);
+    		for (int j = 0; j < M; j++) {
+    			int i = list == null ? j : list[j];
+    			int k = id[(gy[j] - y0)*bw + gx[j] - x0];
+    			block[i] = k;
+    			g[SIZE*k + slot[j]] = i;
+    		}
+    		for (int k = 0; k < count; k++) g[SIZE*k + 20] = 0;
+    		for (int j = 0; j < M; j++) {
+    			int i = list == null ? j : list[j];
+    			int k = block[i];
+    			g[SIZE*k + 20] |= 1 << slot[j];
+    			for (int d = 0; d < 4; d++) {
+    				int n = nb[4*i+d];
+    				g[SIZE*k + 4 + 4*slot[j] + d] = block[n] == k ? N : n;
+    			}
+    		}
+    	}
+
+    	//
+    	// The 4x4 matrix of a whole block is 4I minus the couplings, with the
+    	// inverse (1/24)[7 2 2 1; 2 7 1 2; 2 1 7 2; 1 2 2 7]. The blocks cut by
+    	// the border use the inverse of the matrix of their unknowns, padded
+    	// with zeros, so that the missing unknowns (the ghost) stay 0.
+    	//
+    	static double[][] inverses() {
+    		double[][] inv = new double[16][16];
+    		for (int type = 1; type < 16; type++) {
+    			//Gauss-Jordan on [A | I] restricted to the present unknowns
+    			double[][] a = new double[4][8];
+    			for (int m = 0; m < 4; m++) {
+    				a[m][4+m] = 1.0;
+    				if ((type >> m & 1) == 0) { a[m][m] = 1.0; continue; }
+    				a[m][m] = 4.0;
+    				if ((type >> (m^1) & 1) == 1) a[m][m^1] = -1.0;
+    				if ((type >> (m^2) & 1) == 1) a[m][m^2] = -1.0;
+    			}
+    			for (int m = 0; m < 4; m++) {
+    				double pivot = a[m][m];
+    				for (int k = 0; k < 8; k++) a[m][k] /= pivot;
+    				for (int r = 0; r < 4; r++) {
+    					if (r == m || a[r][m] == 0.0) continue;
+    					double factor = a[r][m];
+    					for (int k = 0; k < 8; k++) a[r][k] -= factor * a[m][k];
+    				}
+    			}
+    			for (int m = 0; m < 4; m++) {
+    				if ((type >> m & 1) == 0) continue;
+    				for (int k = 0; k < 4; k++) inv[type][4*m+k] = a[m][4+k];
+    			}
+    		}
+    		return inv;
+    	}
+    }
+
+    //
+    // Spectral radius rho of the Jacobi iteration matrix B of this region, by
+    // power iteration. The grid is 2-colourable, so -rho is an eigenvalue of
+    // B as well and B^k x doesn't settle; (I+B)/2 has the eigenvalues
+    // (1+l)/2 >= 0 and its largest, (1+rho)/2, has no rival. The Rayleigh
+    // quotient of the all ones start approaches it from below. Stops once it
+    // moves by less than tol*(1-rho).
+    //
+    public double jacobiRadius(double tol, int maxIterations) {
+    	double[] x = new double[N+1];
+    	double[] y = new double[N+1];
+    	java.util.Arrays.fill(x, 0, N, 1.0);
+    	double mu = 0.0;
+    	for (int k = 0; k < maxIterations; k++) {
+    		double xx = 0.0, xy = 0.0, yy = 0.0;
+    		for (int i = 0; i < N; i++) {
+    			int j = 4*i;
+    			double v = 0.5*x[i] + 0.125*(x[nb[j]] + x[nb[j+1]] + x[nb[j+2]] + x[nb[j+3]]);
+    			y[i] = v;
+    			xx += x[i]*x[i];
+    			xy += x[i]*v;
+    			yy += v*v;
+    		}
+    		if (xx == 0.0) break;
+    		double last = mu;
+    		mu = xy / xx;
+    		//Normalised, so that it neither underflows nor overflows
+    		double scale = 1.0 / Math.sqrt(yy);
+    		for (int i = 0; i < N; i++) x[i] = y[i] * scale;
+    		if (k > 0 && Math.abs(mu - last) < tol * 2*(1 - mu)) break;
+    	}
+    	return Math.max(0.0, 2*mu - 1);
+    }
+
+    //Optimal SOR parameter for a consistently ordered system with the Jacobi radius rho
+    public static double optimalW(double rho) {
+    	return 2.0 / (1.0 + Math.sqrt(1.0 - rho*rho));
+    }
+
+    public double getError() {
+    	double total = 0.0;
+    	for (int ch = 0; ch < 3; ch++)
+    		total += residual(U[ch], b[ch], nb, 0, N);
     	return Math.sqrt(total);
     }
 
-    public double getRError(int[][] mask, int W, int H) {
+    public double getRError() {
     	double total = 0.0;
-		for(int y = 1; y < H-1; y++) {
-		  for(int x = 1; x < W-2; x++) {
-			if ((x+y) % 2 == 1) continue;
-			if (mask[x][y] < 0) continue;
+    	for (int ch = 0; ch < 3; ch++)
+    		total += residual(U[ch], c[ch], nbX, even, 0, even.length);
+    	return Math.sqrt(total);
+    }
 
-			int i = mask[x][y];
+    //The error of one channel, getError() is the root of their squares' sum
+    public double getError(int ch) {
+    	return Math.sqrt(residual(U[ch], b[ch], nb, 0, N));
+    }
 
-    		double[] error = {c[i][0], c[i][1], c[i][2]};
-    		if (mask[x-1][y-1] >= 0) {
- 				error[0] += U[mask[x-1][y-1]][0];
-   				error[1] += U[mask[x-1][y-1]][1];
-   				error[2] += U[mask[x-1][y-1]][2];
-			}
-    		if (mask[x+1][y-1] >= 0) {
- 				error[0] += U[mask[x+1][y-1]][0];
-   				error[1] += U[mask[x+1][y-1]][1];
-   				error[2] += U[mask[x+1][y-1]][2];
-			}
-    		if (mask[x-1][y+1] >= 0) {
- 				error[0] += U[mask[x-1][y+1]][0];
-   				error[1] += U[mask[x-1][y+1]][1];
-   				error[2] += U[mask[x-1][y+1]][2];
-			}
-    		if (mask[x+1][y+1] >= 0) {
- 				error[0] += U[mask[x+1][y+1]][0];
-   				error[1] += U[mask[x+1][y+1]][1];
-   				error[2] += U[mask[x+1][y+1]][2];
-			}
-    		error[0] -= 4*U[i][0];
-    		error[1] -= 4*U[i][1];
-    		error[2] -= 4*U[i][2];
-    		total += (error[0]*error[0] + error[1]*error[1] + error[2]*error[2]);
-	  	  }
+    public double getRError(int ch) {
+    	return Math.sqrt(residual(U[ch], c[ch], nbX, even, 0, even.length));
+    }
+
+    //
+    // The error of the iterate left by the last sweep made with measure set,
+    // the same value getError (getRError after doRGS) would return.
+    //
+    public double lastError() {
+    	return Math.sqrt(errors[0] + errors[1] + errors[2]);
+    }
+
+    //
+    // The residual of an unknown is final as soon as it and all its
+    // neighbours have been updated in the sweep, so a fused sweep adds it to
+    // the error right after the last of them. trig[0] is indexed by sweep
+    // position, trig[1][trig[0][j]..trig[0][j+1]-1] are the unknowns whose
+    // residual becomes final at position j. Built on the first measured sweep,
+    // under the lock of the solver since the channel threads may all get
+    // there at once (see startChannels).
+    //
+    synchronized int[][] trig() {
+    	if (trig == null) trig = triggers(nb, null, N);
+    	return trig;
+    }
+
+    synchronized int[][] trigX() {
+    	if (trigX == null) trigX = triggers(nbX, even, N);
+    	return trigX;
+    }
+
+    synchronized Groups groups() {
+    	if (groups == null) groups = new Groups(nb, null, false, px, py, N);
+    	return groups;
+    }
+
+    synchronized Groups groupsX() {
+    	if (groupsX == null) groupsX = new Groups(nbX, even, true, px, py, N);
+    	return groupsX;
+    }
+
+    //For the unknowns of list (all of them in order if null) swept in order
+    static int[][] triggers(int[] nb, int[] list, int N) {
+    	int M = list == null ? N : list.length;
+    	int[] pos = new int[N+1];
+    	java.util.Arrays.fill(pos, -1);
+    	for (int j = 0; j < M; j++) pos[list == null ? j : list[j]] = j;
+    	int[] last = new int[M];
+    	int[] ptr = new int[M+1];
+    	for (int j = 0; j < M; j++) {
+    		int i = list == null ? j : list[j];
+    		int l = j;
+    		for (int k = 4*i; k < 4*i+4; k++)
+    			if (pos[nb[k]] > l) l = pos[nb[k]];
+    		last[j] = l;
+    		ptr[l+1]++;
+    	}
+    	for (int j = 0; j < M; j++) ptr[j+1] += ptr[j];
+    	int[] idx = new int[M];
+    	int[] fill = ptr.clone();
+    	for (int j = 0; j < M; j++)
+    		idx[fill[last[j]]++] = list == null ? j : list[j];
+    	return new int[][] {ptr, idx};
+    }
+
+    //
+    // Channel-parallel solving. Each channel is swept on its own thread until
+    // its own error is at most tol, without waiting for the other two. With
+    // tol = 1/sqrt(3) the overall error is at most 1 once all have stopped.
+    // The progress of every channel can be polled while they run.
+    //
+    public interface Sweep {
+    	void run(int ch);
+    }
+
+    public class Channel implements Runnable {
+    	public final int ch;
+    	public volatile int iterations;
+    	public volatile double error;
+    	public volatile boolean done;
+    	volatile boolean stopped;
+    	Sweep sweep;
+    	boolean rotated;
+    	double tol;
+    	Thread thread;
+
+    	Channel(int ch, Sweep sweep, boolean rotated, double tol) {
+    		this.ch = ch;
+    		this.sweep = sweep;
+    		this.rotated = rotated;
+    		this.tol = tol;
+    	}
+
+    	public void run() {
+    		do {
+    			sweep.run(ch);
+    			error = rotated ? getRError(ch) : getError(ch);
+    			iterations++;
+    		} while (error > tol && !stopped);
+    		done = true;
+    	}
+    }
+
+    Channel[] channels;
+
+    public Channel[] startChannels(Sweep sweep, boolean rotated, double tol) {
+    	channels = new Channel[3];
+    	for (int ch = 0; ch < 3; ch++) {
+    		channels[ch] = new Channel(ch, sweep, rotated, tol);
+    		channels[ch].thread = new Thread(channels[ch], "channel-" + ch);
+    		channels[ch].thread.start();
+    	}
+    	return channels;
+    }
+
+    public boolean channelsDone() {
+    	for (Channel channel : channels)
+    		if (!channel.done) return false;
+    	return true;
+    }
+
+    public void stopChannels() {
+    	for (Channel channel : channels) channel.stopped = true;
+    }
+
+    public void joinChannels() {
+    	for (Channel channel : channels) {
+    		try {
+    			channel.thread.join();
+    		}
+    		catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    			return;
+    		}
+    	}
+    }
+
+    //
+    // The kernels. Each works on one channel over the unknowns from..to-1
+    // (or over a list of unknowns) of the operator given by the neighbour
+    // table.
+    //
+    static void jacobi(double[] u, double[] v, double[] f, int[] nb, int from, int to) {
+    	for (int i = from; i < to; i++) {
+    		int k = 4*i;
+    		v[i] = 0.25 * (u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] + f[i]);
+    	}
+    }
+
+    static void gs(double[] u, double[] f, int[] nb, int from, int to) {
+    	for (int i = from; i < to; i++) {
+    		int k = 4*i;
+    		u[i] = 0.25 * (u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] + f[i]);
+    	}
+    }
+
+    static void gs(double[] u, double[] f, int[] nb, int[] list, int from, int to) {
+    	for (int j = from; j < to; j++) {
+    		int i = list[j];
+    		int k = 4*i;
+    		u[i] = 0.25 * (u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] + f[i]);
+    	}
+    }
+
+    static void sor(double[] u, double[] f, int[] nb, int from, int to, double w) {
+    	for (int i = from; i < to; i++) {
+    		int k = 4*i;
+    		u[i] = w*0.25 * (u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] + f[i]) + (1-w)*u[i];
+    	}
+    }
+
+    static void aor(double[] u, double[] v, double[] f, int[] nb, int from, int to,
+    					double w, double r) {
+    	for (int i = from; i < to; i++) {
+    		int k = 4*i;
+    		int L = nb[k], B = nb[k+2];
+    		double xL = u[L], xB = u[B];
+    		v[i] = w/4 * (xL + u[nb[k+1]] + xB + u[nb[k+3]] + f[i]) + (1-w)*u[i] +
+    		       r/4 * (v[L] - xL + v[B] - xB);
+    	}
+    }
+
+    static void tor(double[] u, double[] v, double[] f, int[] nb, int from, int to,
+    					double w, double r, double s) {
+    	for (int i = from; i < to; i++) {
+    		int k = 4*i;
+    		int L = nb[k], B = nb[k+2];
+    		double xL = u[L], xB = u[B];
+    		v[i] = w/4 * (xL + u[nb[k+1]] + xB + u[nb[k+3]] + f[i]) + (1-w)*u[i] +
+    		       r/4 * (v[L] - xL) +
+    		       s/4 * (v[B] - xB);
+    	}
+    }
+
+    static void sor(double[] u, double[] f, int[] nb, int[] list, int from, int to, double w) {
+    	for (int j = from; j < to; j++) {
+    		int i = list[j];
+    		int k = 4*i;
+    		u[i] = w*0.25 * (u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] + f[i]) + (1-w)*u[i];
+    	}
+    }
+
+    //
+    // SOR on the unknowns of the bitset set, in increasing order. Those that
+    // move by more than threshold mark themselves and their neighbours in
+    // the bitset following (the ghost included, the caller clears it).
+    //
+    static long sor(double[] u, double[] f, int[] nb, long[] set, long[] following,
+    					double w, double threshold) {
+    	long updates = 0;
+    	for (int word = 0; word < set.length; word++) {
+    		long bits = set[word];
+    		while (bits != 0) {
+    			int i = (word << 6) + Long.numberOfTrailingZeros(bits);
+    			bits &= bits - 1;
+    			int k = 4*i;
+    			int L = nb[k], R = nb[k+1], B = nb[k+2], T = nb[k+3];
+    			double x = w*0.25 * (u[L] + u[R] + u[B] + u[T] + f[i]) + (1-w)*u[i];
+    			double d = x - u[i];
+    			u[i] = x;
+    			updates++;
+    			if (d > threshold || d < -threshold) {
+    				following[i >> 6] |= 1L << i;
+    				following[L >> 6] |= 1L << L;
+    				following[R >> 6] |= 1L << R;
+    				following[B >> 6] |= 1L << B;
+    				following[T >> 6] |= 1L << T;
+    			}
+    		}
+    	}
+    	return updates;
+    }
+
+    //
+    // Blocks from..to-1 of the Explicit Group methods: the right hand side
+    // of each of the 4 unknowns of a block is f plus its neighbours outside
+    // the block, which the block's inverse turns into the new values.
+    //
+    static void eg(double[] u, double[] f, int[] g, int from, int to, double w) {
+    	for (int j = from; j < to; j++) {
+    		int k = Groups.SIZE*j;
+    		int i0 = g[k], i1 = g[k+1], i2 = g[k+2], i3 = g[k+3];
+    		double r0 = f[i0] + u[g[k+4]] + u[g[k+5]] + u[g[k+6]] + u[g[k+7]];
+    		double r1 = f[i1] + u[g[k+8]] + u[g[k+9]] + u[g[k+10]] + u[g[k+11]];
+    		double r2 = f[i2] + u[g[k+12]] + u[g[k+13]] + u[g[k+14]] + u[g[k+15]];
+    		double r3 = f[i3] + u[g[k+16]] + u[g[k+17]] + u[g[k+18]] + u[g[k+19]];
+    		double[] A = Groups.INV[g[k+20]];
+    		double v0 = A[0]*r0 + A[1]*r1 + A[2]*r2 + A[3]*r3;
+    		double v1 = A[4]*r0 + A[5]*r1 + A[6]*r2 + A[7]*r3;
+    		double v2 = A[8]*r0 + A[9]*r1 + A[10]*r2 + A[11]*r3;
+    		double v3 = A[12]*r0 + A[13]*r1 + A[14]*r2 + A[15]*r3;
+    		//A missing unknown is the ghost, it gets w*0 + (1-w)*0
+    		u[i0] = w*v0 + (1-w)*u[i0];
+    		u[i1] = w*v1 + (1-w)*u[i1];
+    		u[i2] = w*v2 + (1-w)*u[i2];
+    		u[i3] = w*v3 + (1-w)*u[i3];
+    	}
+    }
+
+    //
+    // SOR on the three channels at once. Each channel is a chain of
+    // dependent updates, interleaving them lets the CPU overlap the chains.
+    //
+    static void sor(double[] u0, double[] u1, double[] u2, double[] f0, double[] f1, double[] f2,
+    					int[] nb, int from, int to, double w) {
+    	for (int i = from; i < to; i++) {
+    		int k = 4*i;
+    		int L = nb[k], R = nb[k+1], B = nb[k+2], T = nb[k+3];
+    		u0[i] = w*0.25 * (u0[L] + u0[R] + u0[B] + u0[T] + f0[i]) + (1-w)*u0[i];
+    		u1[i] = w*0.25 * (u1[L] + u1[R] + u1[B] + u1[T] + f1[i]) + (1-w)*u1[i];
+    		u2[i] = w*0.25 * (u2[L] + u2[R] + u2[B] + u2[T] + f2[i]) + (1-w)*u2[i];
+    	}
+    }
+
+    //Red phase of the red-black AOR/TOR, none of the neighbours is updated yet
+    static void jor(double[] u, double[] v, double[] f, int[] nb, int[] list, int from, int to,
+    					double w) {
+    	for (int j = from; j < to; j++) {
+    		int i = list[j];
+    		int k = 4*i;
+    		v[i] = w/4 * (u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] + f[i]) + (1-w)*u[i];
     	}
-    	return Math.sqrt(total);
     }
 
+    //Black phase of the red-black AOR/TOR, all the neighbours are updated in v
+    static void tor(double[] u, double[] v, double[] f, int[] nb, int[] list, int from, int to,
+    					double w, double r, double s) {
+    	for (int j = from; j < to; j++) {
+    		int i = list[j];
+    		int k = 4*i;
+    		int L = nb[k], R = nb[k+1], B = nb[k+2], T = nb[k+3];
+    		double xL = u[L], xR = u[R], xB = u[B], xU = u[T];
+    		v[i] = w/4 * (xL + xR + xB + xU + f[i]) + (1-w)*u[i] +
+    		       r/4 * (v[L] - xL + v[R] - xR) +
+    		       s/4 * (v[B] - xB + v[T] - xU);
+    	}
+    }
+
+    //
+    // Fused kernels, the same sweeps over all the unknowns (or the list)
+    // that also return the sum of the squared residuals of the new iterate.
+    //
+    static double jacobi(double[] u, double[] v, double[] f, int[] nb, int[] ptr, int[] trig) {
+    	double total = 0.0;
+    	int n = ptr.length - 1;
+    	for (int i = 0; i < n; i++) {
+    		int k = 4*i;
+    		v[i] = 0.25 * (u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] + f[i]);
+    		for (int e = ptr[i]; e < ptr[i+1]; e++) total += residual(v, f, nb, trig[e]);
+    	}
+    	return total;
+    }
+
+    static double gs(double[] u, double[] f, int[] nb, int[] ptr, int[] trig) {
+    	double total = 0.0;
+    	int n = ptr.length - 1;
+    	for (int i = 0; i < n; i++) {
+    		int k = 4*i;
+    		u[i] = 0.25 * (u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] + f[i]);
+    		for (int e = ptr[i]; e < ptr[i+1]; e++) total += residual(u, f, nb, trig[e]);
+    	}
+    	return total;
+    }
+
+    static double gs(double[] u, double[] f, int[] nb, int[] list, int[] ptr, int[] trig) {
+    	double total = 0.0;
+    	for (int j = 0; j < list.length; j++) {
+    		int i = list[j];
+    		int k = 4*i;
+    		u[i] = 0.25 * (u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] + f[i]);
+    		for (int e = ptr[j]; e < ptr[j+1]; e++) total += residual(u, f, nb, trig[e]);
+    	}
+    	return total;
+    }
+
+    static double sor(double[] u, double[] f, int[] nb, int[] ptr, int[] trig, double w) {
+    	double total = 0.0;
+    	int n = ptr.length - 1;
+    	for (int i = 0; i < n; i++) {
+    		int k = 4*i;
+    		u[i] = w*0.25 * (u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] + f[i]) + (1-w)*u[i];
+    		for (int e = ptr[i]; e < ptr[i+1]; e++) total += residual(u, f, nb, trig[e]);
+    	}
+    	return total;
+    }
+
+    static double aor(double[] u, double[] v, double[] f, int[] nb, int[] ptr, int[] trig,
+    					double w, double r) {
+    	double total = 0.0;
+    	int n = ptr.length - 1;
+    	for (int i = 0; i < n; i++) {
+    		int k = 4*i;
+    		int L = nb[k], B = nb[k+2];
+    		double xL = u[L], xB = u[B];
+    		v[i] = w/4 * (xL + u[nb[k+1]] + xB + u[nb[k+3]] + f[i]) + (1-w)*u[i] +
+    		       r/4 * (v[L] - xL + v[B] - xB);
+    		for (int e = ptr[i]; e < ptr[i+1]; e++) total += residual(v, f, nb, trig[e]);
+    	}
+    	return total;
+    }
+
+    static double tor(double[] u, double[] v, double[] f, int[] nb, int[] ptr, int[] trig,
+    					double w, double r, double s) {
+    	double total = 0.0;
+    	int n = ptr.length - 1;
+    	for (int i = 0; i < n; i++) {
+    		int k = 4*i;
+    		int L = nb[k], B = nb[k+2];
+    		double xL = u[L], xB = u[B];
+    		v[i] = w/4 * (xL + u[nb[k+1]] + xB + u[nb[k+3]] + f[i]) + (1-w)*u[i] +
+    		       r/4 * (v[L] - xL) +
+    		       s/4 * (v[B] - xB);
+    		for (int e = ptr[i]; e < ptr[i+1]; e++) total += residual(v, f, nb, trig[e]);
+    	}
+    	return total;
+    }
+
+    //Squared residual of unknown i
+    static double residual(double[] u, double[] f, int[] nb, int i) {
+    	int k = 4*i;
+    	double e = f[i] + u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] - 4*u[i];
+    	return e*e;
+    }
+
+    //Sum of the squared residuals of Ax = f
+    static double residual(double[] u, double[] f, int[] nb, int from, int to) {
+    	double total = 0.0;
+    	for (int i = from; i < to; i++) {
+    		int k = 4*i;
+    		double e = f[i] + u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] - 4*u[i];
+    		total += e*e;
+    	}
+    	return total;
+    }
+
+    static double residual(double[] u, double[] f, int[] nb, int[] list, int from, int to) {
+    	double total = 0.0;
+    	for (int j = from; j < to; j++) {
+    		int i = list[j];
+    		int k = 4*i;
+    		double e = f[i] + u[nb[k]] + u[nb[k+1]] + u[nb[k+2]] + u[nb[k+3]] - 4*u[i];
+    		total += e*e;
+    	}
+    	return total;
+    }
+
+    //
+    // Writes the guess into selectedImage, straight into its array if it
+    // has one (see pixels), otherwise pixel by pixel.
+    //
     public void updateImage(BufferedImage selectedImage) {
-    	for (int i = 0; i < N; i++) {
-    		int x = selectionArea.get(i).x - xMin;
-    		int y = selectionArea.get(i).y - yMin;
-    		int R = (int)Math.round(U[i][0]);
-    		int G = (int)Math.round(U[i][1]);
-    		int B = (int)Math.round(U[i][2]);
-    		if (R > 255) R = 255;
-    		if (R < 0) R = 0;
-    		if (G > 255) G = 255;
-    		if (G < 0) G = 0;
-    		if (B > 255) B = 255;
-    		if (B < 0) B = 0;
-    		int RGB = 0xFF000000 | (R<<16)&0xFF0000 | (G<<8)&0xFF00 | B&0xFF;
-    		selectedImage.setRGB(x, y, RGB);
+    	if (direct(selectedImage)) {
+    		int[] pixels = pixels(selectedImage);
+    		int width = selectedImage.getWidth();
+    		parallel(spans.length / 4, (from, to) -> updateImage(pixels, width, from, to));
+    		return;
+    	}
+    	for (int i = 0; i < N; i++)
+    		selectedImage.setRGB(px[i] - xMin, py[i] - yMin, pixel(i));
+    }
+
+    //Runs from..to-1, the unknowns of a run are consecutive pixels of a row
+    void updateImage(int[] pixels, int width, int from, int to) {
+    	for (int k = 4*from; k < 4*to; k += 4) {
+    		int row = (spans[k] - yMin)*width - xMin;
+    		int i = spans[k+3];
+    		for (int x = spans[k+1]; x <= spans[k+2]; x++)
+    			pixels[row + x] = pixel(i++);
     	}
     }
+
+    //The guess of unknown i as an opaque ARGB pixel
+    int pixel(int i) {
+    	int R = (int)Math.round(U[0][i]);
+    	int G = (int)Math.round(U[1][i]);
+    	int B = (int)Math.round(U[2][i]);
+    	if (R > 255) R = 255;
+    	if (R < 0) R = 0;
+    	if (G > 255) G = 255;
+    	if (G < 0) G = 0;
+    	if (B > 255) B = 255;
+    	if (B < 0) B = 0;
+    	return 0xFF000000 | (R<<16)&0xFF0000 | (G<<8)&0xFF00 | B&0xFF;
+    }
 }
@@ -0,0 +1,196 @@
+
+//
+// Author: Azali Saudi
+// Date Created : 18 Oct 2026
+// Last Modified: 18 Oct 2026
+// Task: Convergence history and timings of a solve, with JDK Flight Recorder events
+//
+
+import java.io.*;
+import java.util.*;
+import jdk.jfr.*;
+
+public class Telemetry {
+	//The run
+	public String method = "";
+	public int unknowns;
+	public long setupTime;//ns building the Solver
+	public long solveTime;//ns in Compositor.solve
+	public boolean converged;
+
+	//One entry per reported sweep: its number, the error, whether the error
+	//was measured after that sweep (otherwise it's the last measured one),
+	//and the ns since the solve started
+	int size;
+	int[] iterations = new int[256];
+	double[] errors = new double[256];
+	boolean[] measured = new boolean[256];
+	long[] times = new long[256];
+
+	long start;
+	SolverSetup setup;
+	SweepBatch batch;
+
+	//
+	// JFR events, e.g. java -XX:StartFlightRecording=filename=run.jfr
+	// Compositor ... then jfr print --events compositing.* run.jfr
+	//
+	@Name("compositing.SolverSetup")
+	@Label("Solver Setup")
+	@Category("Compositing")
+	static class SolverSetup extends Event {
+		@Label("Unknowns") int unknowns;
+	}
+
+	//The sweeps between two error checks
+	@Name("compositing.SweepBatch")
+	@Label("Sweep Batch")
+	@Category("Compositing")
+	static class SweepBatch extends Event {
+		@Label("Method") String method;
+		@Label("First Sweep") int first;
+		@Label("Last Sweep") int last;
+		@Label("Error") double error;
+	}
+
+	@Name("compositing.Convergence")
+	@Label("Convergence")
+	@Category("Compositing")
+	static class Convergence extends Event {
+		@Label("Method") String method;
+		@Label("Unknowns") int unknowns;
+		@Label("Iterations") int iterations;
+		@Label("Error") double error;
+		@Label("Converged") boolean converged;
+	}
+
+	//Around the construction (or relocation) of the solver
+	public void beginSetup() {
+		setup = new SolverSetup();
+		setup.begin();
+		start = System.nanoTime();
+	}
+
+	public void endSetup(Solver solver) {
+		setupTime = System.nanoTime() - start;
+		unknowns = solver.N;
+		setup.unknowns = unknowns;
+		setup.commit();
+		setup = null;
+	}
+
+	void begin(String method, Solver solver) {
+		this.method = method;
+		unknowns = solver.N;
+		size = 0;
+		converged = false;
+		batch = null;
+		start = System.nanoTime();
+	}
+
+	void sweep(int iteration, double error, boolean measured) {
+		if (size == iterations.length) {
+			iterations = Arrays.copyOf(iterations, 2*size);
+			errors = Arrays.copyOf(errors, 2*size);
+			this.measured = Arrays.copyOf(this.measured, 2*size);
+			times = Arrays.copyOf(times, 2*size);
+		}
+		iterations[size] = iteration;
+		errors[size] = error;
+		this.measured[size] = measured;
+		times[size] = System.nanoTime() - start;
+		size++;
+
+		if (batch == null) {
+			batch = new SweepBatch();
+			batch.begin();
+			batch.first = iteration;
+		}
+		if (measured) {
+			batch.method = method;
+			batch.last = iteration;
+			batch.error = error;
+			batch.commit();
+			batch = null;
+		}
+	}
+
+	void end(int iteration, double error, double tol) {
+		solveTime = System.nanoTime() - start;
+		converged = error <= tol;
+		Convergence event = new Convergence();
+		if (event.shouldCommit()) {
+			event.method = method;
+			event.unknowns = unknowns;
+			event.iterations = iteration;
+			event.error = error;
+			event.converged = converged;
+			event.commit();
+		}
+	}
+
+	public int iterations() {
+		return size == 0 ? 0 : iterations[size - 1];
+	}
+
+	//Unknowns updated per second, counting all three channels as one
+	public double unknownsPerSecond() {
+		return solveTime == 0 ? 0.0 : (double)unknowns * iterations() * 1e9 / solveTime;
+	}
+
+	//Mean ns of a sweep with and without an error check
+	public double sweepTime(boolean withCheck) {
+		long total = 0;
+		int count = 0;
+		for (int k = 1; k < size; k++) {
+			if (measured[k] != withCheck || iterations[k] != iterations[k-1] + 1) continue;
+			total += times[k] - times[k-1];
+			count++;
+		}
+		return count == 0 ? 0.0 : (double)total / count;
+	}
+
+	//Sweeps without an error check are only timed when the cadence skips some
+	public String summary() {
+		String sweeps = "";
+		if (sweepTime(false) > 0.0) sweeps += String.format(Locale.ROOT, " sweep=%.1f us", sweepTime(false) / 1e3);
+		if (sweepTime(true) > 0.0) sweeps += String.format(Locale.ROOT, " checked sweep=%.1f us", sweepTime(true) / 1e3);
+		return String.format(Locale.ROOT, "setup=%.1f ms solve=%.1f ms unknowns/s=%.3g%s",
+		                     setupTime / 1e6, solveTime / 1e6, unknownsPerSecond(), sweeps);
+	}
+
+	//iteration,error,measured,ms
+	public void writeCSV(File file) throws IOException {
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		out.println("iteration,error,measured,ms");
+		for (int k = 0; k < size; k++)
+			out.println(String.format(Locale.ROOT, "%d,%.6g,%d,%.3f", iterations[k], errors[k], measured[k] ? 1 : 0, times[k] / 1e6));
+		out.close();
+	}
+
+	//The run and its history, only the measured errors
+	public void writeJSON(File file) throws IOException {
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		out.println("{");
+		out.println("  \"method\": \"" + method + "\",");
+		out.println("  \"unknowns\": " + unknowns + ",");
+		out.println("  \"iterations\": " + iterations() + ",");
+		out.println("  \"converged\": " + converged + ",");
+		out.println(String.format(Locale.ROOT, "  \"setupMs\": %.3f,", setupTime / 1e6));
+		out.println(String.format(Locale.ROOT, "  \"solveMs\": %.3f,", solveTime / 1e6));
+		out.println(String.format(Locale.ROOT, "  \"unknownsPerSecond\": %.6g,", unknownsPerSecond()));
+		out.println(String.format(Locale.ROOT, "  \"sweepUs\": %.3f,", sweepTime(false) / 1e3));
+		out.println(String.format(Locale.ROOT, "  \"checkedSweepUs\": %.3f,", sweepTime(true) / 1e3));
+		out.print("  \"history\": [");
+		String sep = "";
+		for (int k = 0; k < size; k++) {
+			if (!measured[k]) continue;
+			out.print(String.format(Locale.ROOT, "%s\n    {\"iteration\": %d, \"error\": %.6g, \"ms\": %.3f}",
+			                        sep, iterations[k], errors[k], times[k] / 1e6));
+			sep = ",";
+		}
+		out.println("\n  ]");
+		out.println("}");
+		out.close();
+	}
+}
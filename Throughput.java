@@ -0,0 +1,254 @@
+
+//
+// Author: Azali Saudi
+// Date Created : 18 Oct 2026
+// Last Modified: 18 Oct 2026
+// Task: End-to-end benchmark of whole composites, throughput, latency and quality per method
+//
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import javax.imageio.ImageIO;
+
+public class Throughput {
+	//One composite of the corpus. A generated job has the corners of its
+	//border and extracts its region like the GUI, a loaded one has a region
+	static class Job {
+		String name;
+		BufferedImage target, source, regionImage;
+		Coords corners;
+		Region region;
+		int dx, dy;
+		//The solution of the reference method
+		BufferedImage reference;
+	}
+
+	//
+	// The border through the corners as Blender.mouseReleased draws it,
+	// then the enclosed area as Blender.getSelectionArea finds it.
+	//
+	static Region extract(Coords corners, int Width, int Height) {
+		Region region = new Region();
+		int N = corners.size();
+		for (int n = 0; n < N; n++) {
+			int startx = corners.x(n);
+			int starty = corners.y(n);
+			int totalDX = corners.x((n+1)%N) - startx;
+			int totalDY = corners.y((n+1)%N) - starty;
+			int numAdded = Math.abs(totalDX) + Math.abs(totalDY);
+			for (int t = 0; t < numAdded; t++) {
+				double frac = (double)t / (double)numAdded;
+				region.border.add((int)Math.round(frac*totalDX) + startx, (int)Math.round(frac*totalDY) + starty);
+			}
+		}
+		region.xMin = Width;
+		region.yMin = Height;
+		int[][] mask = new int[Width][Height];
+		for (int x = 0; x < Width; x++)
+			Arrays.fill(mask[x], -2);
+		for (int i = 0; i < region.border.size(); i++) {
+			int x = region.border.x(i);
+			int y = region.border.y(i);
+			mask[x][y] = -1;
+			region.xMin = Math.min(region.xMin, x);
+			region.xMax = Math.max(region.xMax, x);
+			region.yMin = Math.min(region.yMin, y);
+			region.yMax = Math.max(region.yMax, y);
+		}
+		Blender.fillOutside(mask, region.xMin, region.yMin, region.xMax, region.yMax);
+		for (int x = region.xMin; x <= region.xMax; x++) {
+			for (int y = region.yMin; y <= region.yMax; y++)
+				if (mask[x][y] == -2) region.area.add(x, y);
+		}
+		return region;
+	}
+
+	//
+	// count star shaped regions of the source image 2.png, each moved to a
+	// random place of the target 1.png. The seed fixes the corpus.
+	//
+	static ArrayList<Job> generate(File dir, int count, long seed) throws IOException {
+		BufferedImage target = ImageIO.read(new File(dir, "1.png"));
+		BufferedImage source = ImageIO.read(new File(dir, "2.png"));
+		int sw = source.getWidth(), sh = source.getHeight();
+		Random rnd = new Random(seed);
+		ArrayList<Job> jobs = new ArrayList<Job>();
+		for (int k = 0; k < count; k++) {
+			Job job = new Job();
+			job.name = "star" + k;
+			job.target = target;
+			job.source = source;
+			//Radius from a sixth up to nearly half of the source
+			int radius = Math.min(sw, sh) / 6 + rnd.nextInt(Math.max(1, Math.min(sw, sh) / 3 - 4));
+			int cx = Compositor.SOURCE_X + sw / 2, cy = Compositor.SOURCE_Y + sh / 2;
+			int corners = 5 + rnd.nextInt(20);
+			job.corners = new Coords();
+			for (int n = 0; n < corners; n++) {
+				double angle = 2*Math.PI*n / corners;
+				double r = radius * (0.5 + 0.5*rnd.nextDouble());
+				job.corners.add((int)Math.round(cx + r*Math.cos(angle)), (int)Math.round(cy + r*Math.sin(angle)));
+			}
+			//Anywhere on the target with a margin of one pixel
+			job.dx = 1 + radius + rnd.nextInt(Math.max(1, target.getWidth() - 2*radius - 2)) - cx;
+			job.dy = 1 + radius + rnd.nextInt(Math.max(1, target.getHeight() - 2*radius - 2)) - cy;
+			jobs.add(job);
+		}
+		return jobs;
+	}
+
+	//A jobs file of Compositor -batch, target source|- region dx dy on each line
+	static ArrayList<Job> load(File file) throws IOException {
+		ArrayList<Job> jobs = new ArrayList<Job>();
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		String line;
+		while ((line = br.readLine()) != null) {
+			line = line.trim();
+			if (line.equals("") || line.startsWith("#")) continue;
+			String[] args = line.split("\\s+");
+			Job job = new Job();
+			job.name = args[2];
+			job.target = ImageIO.read(new File(args[0]));
+			job.source = args[1].equals("-") ? null : ImageIO.read(new File(args[1]));
+			job.region = Region.load(new File(args[2]));
+			job.regionImage = job.source == null ? ImageIO.read(new File(args[2] + ".png")) : null;
+			job.dx = Integer.parseInt(args[3]);
+			job.dy = Integer.parseInt(args[4]);
+			jobs.add(job);
+		}
+		br.close();
+		return jobs;
+	}
+
+	//The whole pipeline of one job: region, composite, PNG
+	static BufferedImage composite(Compositor compositor, Job job) throws IOException {
+		Region region = job.region;
+		if (region == null)
+			region = extract(job.corners, Compositor.SOURCE_X + job.source.getWidth(),
+			                 Math.max(job.target.getHeight(), Compositor.SOURCE_Y + job.source.getHeight()));
+		BufferedImage result = compositor.composite(job.target, job.source, region, job.regionImage, job.dx, job.dy);
+		ImageIO.write(result, "png", new ByteArrayOutputStream());
+		return result;
+	}
+
+	static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		return peak;
+	}
+
+	static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+	}
+
+	//PSNR and SSIM of Tools, jssim compares image files
+	static double[] quality(BufferedImage image, BufferedImage reference) throws IOException {
+		double psnr = Tools.compare(image, reference).psnr;
+		File f1 = File.createTempFile("result", ".png");
+		File f2 = File.createTempFile("reference", ".png");
+		ImageIO.write(image, "png", f1);
+		ImageIO.write(reference, "png", f2);
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new ByteArrayOutputStream()));
+		double ssim;
+		try {
+			ssim = Tools.printSSIM(f1, f2);
+		}
+		finally {
+			System.setOut(out);
+			f1.delete();
+			f2.delete();
+		}
+		return new double[] { psnr, ssim };
+	}
+
+	static double percentile(double[] sorted, double p) {
+		int k = (int)Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, k))];
+	}
+
+    //
+    // Usage:
+    //   java Throughput [methods] [repeats] [jobs|count] [results]
+    // e.g. java Throughput SOR,RBSOR,MG,FMG 5 12 results.jsonl
+    // Every method composites every job of the corpus repeats times after
+    // a warm-up pass, one after the other on this thread, until the error
+    // is at most 1.0 (Compositor.tol). The corpus is a jobs file as for
+    // Compositor -batch, or count regions generated from 1.png and 2.png
+    // with a fixed seed. The quality is measured against MG solved to an
+    // error of 0.01. Prints a table and appends one JSON object per method
+    // to the results file (throughput.jsonl by default). The PSNR is the
+    // mean over the results that differ from their reference, null if none.
+    //
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		String[] methods = (args.length > 0 ? args[0] : "SOR,RBSOR,EGSOR,WARM+SOR,MG,FMG,ICCG").toUpperCase().split(",");
+		int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		String corpus = args.length > 2 ? args[2] : "8";
+		File results = new File(args.length > 3 ? args[3] : "throughput.jsonl");
+
+		ArrayList<Job> jobs = corpus.matches("\\d+") ? generate(new File("."), Integer.parseInt(corpus), 1) : load(new File(corpus));
+		Compositor reference = new Compositor();
+		reference.method = "MG";
+		reference.tol = 0.01;
+		for (Job job : jobs)
+			job.reference = composite(reference, job);
+
+		System.out.println(String.format("%-10s %8s %9s %9s %9s %9s %10s %8s %7s %7s",
+		                                 "method", "jobs/s", "p50 ms", "p95 ms", "p99 ms", "iters", "unknowns", "heap MB", "PSNR", "SSIM"));
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(results, true)));
+		for (String method : methods) {
+			Compositor compositor = new Compositor();
+			compositor.method = method;
+			for (Job job : jobs)
+				composite(compositor, job);
+
+			System.gc();
+			resetPeakHeap();
+			double[] latencies = new double[repeats * jobs.size()];
+			long iterations = 0, unknowns = 0;
+			double psnr = 0.0, ssim = 0.0;
+			int n = 0, exact = 0;
+			long start = System.nanoTime();
+			for (int repeat = 0; repeat < repeats; repeat++) {
+				for (Job job : jobs) {
+					long t = System.nanoTime();
+					BufferedImage result = composite(compositor, job);
+					latencies[n++] = (System.nanoTime() - t) / 1e6;
+					iterations += compositor.iterations;
+					unknowns += compositor.telemetry.unknowns;
+					if (repeat == 0) {
+						//Not timed, the wall clock below leaves it out
+						long q = System.nanoTime();
+						double[] metrics = quality(result, job.reference);
+						//An exact result has no PSNR, the mean is over the others
+						if (Double.isInfinite(metrics[0])) exact++;
+						else psnr += metrics[0];
+						ssim += metrics[1];
+						start += System.nanoTime() - q;
+					}
+				}
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			long heap = peakHeap();
+			Arrays.sort(latencies);
+			double rate = n / seconds;
+			double p50 = percentile(latencies, 50), p95 = percentile(latencies, 95), p99 = percentile(latencies, 99);
+			psnr = exact == jobs.size() ? Double.POSITIVE_INFINITY : psnr / (jobs.size() - exact);
+			ssim /= jobs.size();
+
+			System.out.println(String.format(Locale.ROOT, "%-10s %8.2f %9.2f %9.2f %9.2f %9.1f %10d %8.1f %7.2f %7.4f",
+			                                 method, rate, p50, p95, p99, (double)iterations / n, unknowns / n,
+			                                 heap / 1048576.0, psnr, ssim));
+			out.println(String.format(Locale.ROOT, "{\"method\": \"%s\", \"jobs\": %d, \"repeats\": %d, \"compositesPerSecond\": %.4f, " +
+			                          "\"p50Ms\": %.3f, \"p95Ms\": %.3f, \"p99Ms\": %.3f, \"iterations\": %.2f, \"unknowns\": %d, " +
+			                          "\"peakHeapBytes\": %d, \"psnr\": %s, \"ssim\": %.6f, \"corpus\": \"%s\", \"java\": \"%s\"}",
+			                          method, jobs.size(), repeats, rate, p50, p95, p99, (double)iterations / n, unknowns / n,
+			                          heap, Double.isInfinite(psnr) ? "null" : String.format(Locale.ROOT, "%.4f", psnr), ssim, corpus, System.getProperty("java.version")));
+		}
+		out.close();
+	}
+}
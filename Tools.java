@@ -1,5 +1,12 @@
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.concurrent.ForkJoinPool;
 
 import jssim.*;
 import java.io.File;
@@ -33,42 +40,147 @@ public class Tools {
 	}
 
 	/**
-	 * Computes and prints out the PSNR of two images (which must have the same 
-	 * dimensions and type).
+	 * The metrics of a pair of images, see compare. Like the printXxx
+	 * methods they compare the first sample (red) of every pixel.
 	 */
-	public static double printPSNR(File file1, File file2) {
+	public static class Metrics {
+		public double mse, psnr, sc, nae, avd, md, ncc;
+		// NaN unless asked for, jssim reads the files itself
+		public double ssim = Double.NaN;
+	}
+
+	// Rows per band of the fused pass
+	static final int ROWS = 32;
+
+	/**
+	 * Decodes each file once and computes every metric, SSIM too if ssim is
+	 * set. Returns null if a file can't be read, the printXxx methods then
+	 * return NaN.
+	 */
+	public static Metrics compare(File file1, File file2, boolean ssim) {
 		BufferedImage im1 = null;
 		BufferedImage im2 = null;
 		try {
 			im1 = ImageIO.read(file1);
 			im2 = ImageIO.read(file2);
 		} catch (Exception e) {
-			System.out.println("ERROR PSNR: Could not read image files");
+			System.out.println("ERROR: Could not read image files");
+		}
+		if (im1 == null || im2 == null)
+			return null;
+		Metrics m = compare(im1, im2);
+		if (ssim) {
+			try {
+				m.ssim = new SsimCalculator(file1).compareTo(file2);
+			} catch (Exception e) {
+				System.out.println("ERROR: Could not calculate SSIM");
+			}
 		}
-		
+		return m;
+	}
+
+	/**
+	 * PSNR, SC, NAE, AVD, MD and NCC in one pass over the samples, in bands
+	 * of rows over the common pool. The sums are of integers, so they are
+	 * exact and the same as those of the printXxx methods (which this
+	 * replaces, PSNR still only counts every other pixel).
+	 */
+	public static Metrics compare(BufferedImage im1, BufferedImage im2) {
 		assert(
-			im1.getType() == im2.getType()
-				&& im1.getHeight() == im2.getHeight()
+			im1.getHeight() == im2.getHeight()
 				&& im1.getWidth() == im2.getWidth());
 
-		double mse = 0;
 		int width = im1.getWidth();
 		int height = im1.getHeight();
 		Raster r1 = im1.getRaster();
 		Raster r2 = im2.getRaster();
-		for (int j = 0; j < height; j++)
-			for (int i = 0; i < width; i++) {
-				if(((i+j)%2) == 1) continue;
-				mse
-					+= Math.pow(r1.getSample(i, j, 0) - r2.getSample(i, j, 0), 2);
+		int bands = (height + ROWS - 1) / ROWS;
+		// Per band: PSNR squares, A^2, B^2, |A-B|, A, max |A-B|, AB
+		long[][] sums = new long[bands][7];
+		Solver.Band pass = (from, to) -> {
+			int[] a = new int[width];
+			int[] b = new int[width];
+			for (int band = from; band < to; band++) {
+				long[] t = sums[band];
+				for (int j = band * ROWS; j < Math.min(height, (band + 1) * ROWS); j++) {
+					samples(r1, j, a);
+					samples(r2, j, b);
+					for (int i = 0; i < width; i++) {
+						long d = a[i] - b[i];
+						long abs = Math.abs(d);
+						if (((i+j)%2) == 0) t[0] += d * d;
+						t[1] += (long)a[i] * a[i];
+						t[2] += (long)b[i] * b[i];
+						t[3] += abs;
+						t[4] += a[i];
+						if (abs > t[5]) t[5] = abs;
+						t[6] += (long)a[i] * b[i];
+					}
+				}
 			}
-		mse /= (double) (width * height);
-		System.err.println("MSE = " + mse);
-		int maxVal = 255;
-		double x = Math.pow(maxVal, 2) / mse;
-		double psnr = 10.0 * logbase10(x);
-		System.err.println("PSNR = " + psnr);
-		return psnr;
+		};
+		if (bands < 4) pass.run(0, bands);
+		else ForkJoinPool.commonPool().invoke(new Solver.Bands(pass, 0, bands, 1));
+
+		long[] t = new long[7];
+		for (long[] band : sums) {
+			for (int k = 0; k < 7; k++) {
+				if (k == 5) t[k] = Math.max(t[k], band[k]);
+				else t[k] += band[k];
+			}
+		}
+		Metrics m = new Metrics();
+		m.mse = t[0] / (double) (width * height);
+		m.psnr = 10.0 * logbase10(Math.pow(255, 2) / m.mse);
+		m.sc = (double) t[1] / (double) t[2];
+		m.nae = (double) t[3] / (double) t[4];
+		m.avd = t[3] / (double) (width * height);
+		m.md = t[5];
+		m.ncc = (double) t[6] / (double) t[1];
+		return m;
+	}
+
+	/**
+	 * Reads the first sample of every pixel of row y into row, straight
+	 * from the data array for the usual byte and int images.
+	 */
+	static void samples(Raster r, int y, int[] row) {
+		int width = row.length;
+		SampleModel sm = r.getSampleModel();
+		DataBuffer db = r.getDataBuffer();
+		int sy = y - r.getSampleModelTranslateY();
+		int sx = r.getMinX() - r.getSampleModelTranslateX();
+		if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+			ComponentSampleModel csm = (ComponentSampleModel) sm;
+			int bank = csm.getBankIndices()[0];
+			byte[] data = ((DataBufferByte) db).getData(bank);
+			int k = db.getOffsets()[bank] + csm.getOffset(sx, sy, 0);
+			int stride = csm.getPixelStride();
+			for (int i = 0; i < width; i++, k += stride)
+				row[i] = data[k] & 0xFF;
+		}
+		else if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+			SinglePixelPackedSampleModel spp = (SinglePixelPackedSampleModel) sm;
+			int[] data = ((DataBufferInt) db).getData();
+			int k = db.getOffset() + spp.getOffset(sx, sy);
+			int mask = spp.getBitMasks()[0];
+			int shift = spp.getBitOffsets()[0];
+			for (int i = 0; i < width; i++)
+				row[i] = (data[k + i] & mask) >>> shift;
+		}
+		else r.getSamples(r.getMinX(), y, width, 1, 0, row);
+	}
+
+	/**
+	 * Computes and prints out the PSNR of two images (which must have the same 
+	 * dimensions and type).
+	 */
+	public static double printPSNR(File file1, File file2) {
+		Metrics m = compare(file1, file2, false);
+		if (m == null) return Double.NaN;
+		System.err.println("MSE = " + m.mse);
+		System.err.println("PSNR = " + m.psnr);
+		return m.psnr;
 	}
 	
 	/**
@@ -100,130 +212,40 @@ public class Tools {
 	 * Ideal value is 1
 	 */
 	public static double printSC(File file1, File file2) {
-		BufferedImage im1 = null;
-		BufferedImage im2 = null;
-		try {
-			im1 = ImageIO.read(file1);
-			im2 = ImageIO.read(file2);
-		} catch (Exception e) {
-			System.out.println("ERROR SC: Could not read image files");
-		}
-
-		assert(
-			im1.getType() == im2.getType()
-				&& im1.getHeight() == im2.getHeight()
-				&& im1.getWidth() == im2.getWidth());
-
-		double stc = 0, A = .0, B = .0;
-		int width = im1.getWidth();
-		int height = im1.getHeight();
-		Raster r1 = im1.getRaster();
-		Raster r2 = im2.getRaster();
-		for (int j = 0; j < height; j++)
-			for (int i = 0; i < width; i++) {
-				A += Math.pow(r1.getSample(i, j, 0), 2);
-				B += Math.pow(r2.getSample(i, j, 0), 2);
-			}
-		stc = A / B;
-		System.err.println("SC = " + stc);
-		return stc;
+		Metrics m = compare(file1, file2, false);
+		if (m == null) return Double.NaN;
+		System.err.println("SC = " + m.sc);
+		return m.sc;
 	}
 	
 	/**
 	 * Ideal value is 0
 	 */
 	public static double printNAE(File file1, File file2) {
-		BufferedImage im1 = null;
-		BufferedImage im2 = null;
-		try {
-			im1 = ImageIO.read(file1);
-			im2 = ImageIO.read(file2);
-		} catch (Exception e) {
-			System.out.println("ERROR NAE: Could not read image files");
-		}
-
-		assert(
-			im1.getType() == im2.getType()
-				&& im1.getHeight() == im2.getHeight()
-				&& im1.getWidth() == im2.getWidth());
-
-		double nae = 0, A = .0, absDiff = .0;
-		int width = im1.getWidth();
-		int height = im1.getHeight();
-		Raster r1 = im1.getRaster();
-		Raster r2 = im2.getRaster();
-		for (int j = 0; j < height; j++)
-			for (int i = 0; i < width; i++) {
-				absDiff += Math.abs(r1.getSample(i, j, 0) - r2.getSample(i, j, 0));
-				A += r1.getSample(i, j, 0);
-			}
-		nae = absDiff / A;
-		System.err.println("NAE = " + nae);
-		return nae;
+		Metrics m = compare(file1, file2, false);
+		if (m == null) return Double.NaN;
+		System.err.println("NAE = " + m.nae);
+		return m.nae;
 	}
 	
 	/**
 	 * Ideal value is 0
 	 */
 	public static double printAVD(File file1, File file2) {
-		BufferedImage im1 = null;
-		BufferedImage im2 = null;
-		try {
-			im1 = ImageIO.read(file1);
-			im2 = ImageIO.read(file2);
-		} catch (Exception e) {
-			System.out.println("ERROR AVD: Could not read image files");
-		}
-
-		assert(
-			im1.getType() == im2.getType()
-				&& im1.getHeight() == im2.getHeight()
-				&& im1.getWidth() == im2.getWidth());
-
-		double avd = .0;
-		int width = im1.getWidth();
-		int height = im1.getHeight();
-		Raster r1 = im1.getRaster();
-		Raster r2 = im2.getRaster();
-		for (int j = 0; j < height; j++)
-			for (int i = 0; i < width; i++) {
-				avd += Math.abs(r1.getSample(i, j, 0) - r2.getSample(i, j, 0));
-			}
-		avd /= (double) (width * height);
-		System.err.println("AVD = " + avd);
-		return avd;
+		Metrics m = compare(file1, file2, false);
+		if (m == null) return Double.NaN;
+		System.err.println("AVD = " + m.avd);
+		return m.avd;
 	}	
 	
 	/**
 	 * Lower value is better
 	 */
 	public static double printMD(File file1, File file2) {
-		BufferedImage im1 = null;
-		BufferedImage im2 = null;
-		try {
-			im1 = ImageIO.read(file1);
-			im2 = ImageIO.read(file2);
-		} catch (Exception e) {
-			System.out.println("ERROR MD: Could not read image files");
-		}
-
-		assert(
-			im1.getType() == im2.getType()
-				&& im1.getHeight() == im2.getHeight()
-				&& im1.getWidth() == im2.getWidth());
-
-		double mxd = .0;
-		int width = im1.getWidth();
-		int height = im1.getHeight();
-		Raster r1 = im1.getRaster();
-		Raster r2 = im2.getRaster();
-		for (int j = 0; j < height; j++)
-			for (int i = 0; i < width; i++) {
-				double a = Math.abs(r1.getSample(i, j, 0) - r2.getSample(i, j, 0));
-				if(a > mxd) mxd = a;
-			}
-		System.err.println("MD = " + mxd);
-		return mxd;
+		Metrics m = compare(file1, file2, false);
+		if (m == null) return Double.NaN;
+		System.err.println("MD = " + m.md);
+		return m.md;
 	}
 	
 	
@@ -233,32 +255,9 @@ public class Tools {
 	 * 
 	 */
 	public static double printNCC(File file1, File file2) {
-		BufferedImage im1 = null;
-		BufferedImage im2 = null;
-		try {
-			im1 = ImageIO.read(file1);
-			im2 = ImageIO.read(file2);
-		} catch (Exception e) {
-			System.out.println("ERROR NCC: Could not read image files");
-		}
-
-		assert(
-			im1.getType() == im2.getType()
-				&& im1.getHeight() == im2.getHeight()
-				&& im1.getWidth() == im2.getWidth());
-
-		double ncc = 0, AB = .0, A2 = .0;
-		int width  = im1.getWidth();
-		int height = im1.getHeight();
-		Raster r1 = im1.getRaster();
-		Raster r2 = im2.getRaster();
-		for (int j = 0; j < height; j++)
-			for (int i = 0; i < width; i++) {
-				AB += r1.getSample(i, j, 0) * r2.getSample(i, j, 0);
-				A2 += Math.pow(r1.getSample(i, j, 0), 2);
-			}
-		ncc = AB / A2;
-		System.out.println("NCC = " + ncc);
-		return ncc;
+		Metrics m = compare(file1, file2, false);
+		if (m == null) return Double.NaN;
+		System.out.println("NCC = " + m.ncc);
+		return m.ncc;
 	}		
 }